@@ -213,6 +213,9 @@ class MarkdownEditor
 
 	public String getHTML() {
 		if (null != markdownPreviewPane) {
+			// the AST is parsed in background; make sure that it matches the text
+			if (null != markdownEditorPane)
+				markdownEditorPane.parseNow();
 			return markdownPreviewPane.getHTML();
 		}
 		return "";
@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.Supplier;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
@@ -55,6 +56,7 @@ import org.scrivo.markdownfx.editor.MarkdownEditorPane;
 import org.scrivo.markdownfx.options.Options;
 import org.scrivo.markdownfx.preview.MarkdownPreviewPane;
 import org.scrivo.markdownfx.preview.MarkdownPreviewPane.Type;
+import org.scrivo.markdownfx.util.Utils;
 
 /**
  * Editor for a single file.
@@ -198,6 +200,19 @@ class _FileEditor
 		}
 
 		// load file and create UI when the tab becomes visible the first time
+		loadEditor();
+
+		updatePreviewType();
+		markdownEditorPane.requestFocus();
+	}
+
+	/**
+	 * Returns the editor. Loads the file and creates the UI if necessary
+	 * (e.g. for searching in tabs that have not been visible yet).
+	 */
+	MarkdownEditorPane loadEditor() {
+		if (tab.getContent() != null)
+			return markdownEditorPane;
 
 		markdownEditorPane = new MarkdownEditorPane();
 		markdownPreviewPane = new MarkdownPreviewPane();
@@ -225,9 +240,7 @@ class _FileEditor
 		if (getPreviewType() != MarkdownPreviewPane.Type.None)
 			splitPane.getItems().add(markdownPreviewPane.getNode());
 		tab.setContent(splitPane);
-
-		updatePreviewType();
-		markdownEditorPane.requestFocus();
+		return markdownEditorPane;
 	}
 
 	void load() {
@@ -239,17 +252,7 @@ class _FileEditor
 
 		try {
 			byte[] bytes = Files.readAllBytes(path);
-
-			String markdown = null;
-			if (Options.getEncoding() != null) {
-				try {
-					markdown = new String(bytes, Options.getEncoding());
-				} catch (UnsupportedEncodingException ex) {
-					// fallback
-					markdown = new String(bytes);
-				}
-			} else
-				markdown = new String(bytes);
+			String markdown = Utils.decode(bytes, Options.getEncoding());
 
 			markdownEditorPane.setMarkdown(markdown);
 			markdownEditorPane.getUndoManager().mark();
@@ -261,6 +264,29 @@ class _FileEditor
 		}
 	}
 
+	/**
+	 * Returns a reader for the text of the file (without creating the UI) as it
+	 * would be in the editor (with normalized line separators). The reader can
+	 * be invoked in any thread and returns null if there is no file or it can
+	 * not be read.
+	 */
+	Supplier<String> textReader() {
+		// get path and encoding on the JavaFX application thread
+		Path path = this.path.get();
+		String encoding = Options.getEncoding();
+		return () -> {
+			if (path == null)
+				return null;
+
+			try {
+				String markdown = Utils.decode(Files.readAllBytes(path), encoding);
+				return markdown.replace("\r\n", "\n").replace('\r', '\n');
+			} catch (IOException ex) {
+				return null;
+			}
+		};
+	}
+
 	boolean save() {
 		String markdown = markdownEditorPane.getMarkdown();
 
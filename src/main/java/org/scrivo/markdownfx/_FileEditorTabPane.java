@@ -31,6 +31,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.prefs.Preferences;
 import javafx.beans.property.ReadOnlyBooleanProperty;
 import javafx.beans.property.ReadOnlyBooleanWrapper;
@@ -49,6 +50,8 @@ import javafx.scene.control.TabPane;
 import javafx.scene.control.TabPane.TabClosingPolicy;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
+import org.scrivo.markdownfx.editor.MarkdownEditorPane;
+import org.scrivo.markdownfx.editor.OpenFilesFindPane;
 
 import org.scrivo.markdownfx.options.Options;
 import org.scrivo.markdownfx.util.PrefsBooleanProperty;
@@ -302,6 +305,47 @@ class _FileEditorTabPane
 		return allEditors;
 	}
 
+	/**
+	 * Returns all open files (for find in open files).
+	 */
+	List<OpenFilesFindPane.Document> getDocuments() {
+		List<OpenFilesFindPane.Document> documents = new ArrayList<>();
+		for (_FileEditor fileEditor : getAllEditors()) {
+			Tab tab = fileEditor.getTab();
+			documents.add(new OpenFilesFindPane.Document() {
+				@Override
+				public String getName() {
+					return tab.getText();
+				}
+
+				@Override
+				public MarkdownEditorPane getEditor() {
+					return fileEditor.getEditor();
+				}
+
+				@Override
+				public MarkdownEditorPane loadEditor() {
+					return fileEditor.loadEditor();
+				}
+
+				@Override
+				public Supplier<String> textReader() {
+					return fileEditor.textReader();
+				}
+
+				@Override
+				public boolean activate() {
+					if (tab.getTabPane() == null)
+						return false; // tab is already closed
+
+					tabPane.getSelectionModel().select(tab);
+					return true;
+				}
+			});
+		}
+		return documents;
+	}
+
 	private _FileEditor findEditor(Path path) {
 		for (Tab tab : tabPane.getTabs()) {
 			_FileEditor fileEditor = (_FileEditor) tab.getUserData();
@@ -50,13 +50,16 @@ import static de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon.STRIKETHROUGH;
 import static de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon.UNDO;
 
 import java.text.MessageFormat;
+import java.util.Collections;
 import java.util.function.Function;
 
 import org.scrivo.markdownfx.editor.MarkdownEditorPane;
+import org.scrivo.markdownfx.editor.OpenFilesFindPane;
 import org.scrivo.markdownfx.editor.SmartEdit;
 import org.scrivo.markdownfx.options.Options;
 import org.scrivo.markdownfx.options.OptionsDialog;
 import org.scrivo.markdownfx.options.Options.RendererType;
+import org.scrivo.markdownfx.search.FolderSearchPane;
 import org.scrivo.markdownfx.util.Action;
 import org.scrivo.markdownfx.util.ActionUtils;
 
@@ -99,19 +102,34 @@ class _MainWindow
 {
 	private final Scene scene;
 	private final _FileEditorTabPane fileEditorTabPane;
+	private final OpenFilesFindPane openFilesFindPane;
+	private final FolderSearchPane folderSearchPane;
+	private BorderPane borderPane;
 	private MenuBar menuBar;
 	private Node extensionsButton;
 	final BooleanProperty stageFocusedProperty = new SimpleBooleanProperty();
 
 	_MainWindow() {
 		fileEditorTabPane = new _FileEditorTabPane(this);
+		openFilesFindPane = new OpenFilesFindPane(fileEditorTabPane::getDocuments);
+		folderSearchPane = new FolderSearchPane(path ->
+			fileEditorTabPane.openEditors(Collections.singletonList(path.toFile()), 0));
 
-		BorderPane borderPane = new BorderPane();
+		borderPane = new BorderPane();
 		borderPane.getStyleClass().add("main");
 		borderPane.setPrefSize(800, 800);
 		borderPane.setTop(createMenuBarAndToolBar());
 		borderPane.setCenter(fileEditorTabPane.getNode());
 
+		openFilesFindPane.visibleProperty().addListener((ov, oldVisible, newVisible) -> {
+			if (!newVisible && borderPane.getBottom() == openFilesFindPane.getNode())
+				borderPane.setBottom(null);
+		});
+		folderSearchPane.visibleProperty().addListener((ov, oldVisible, newVisible) -> {
+			if (!newVisible && borderPane.getBottom() == folderSearchPane.getNode())
+				borderPane.setBottom(null);
+		});
+
 		scene = new Scene(borderPane);
 		scene.getStylesheets().add("org/markdownwriterfx/MarkdownWriter.css");
 		scene.windowProperty().addListener((observable, oldWindow, newWindow) -> {
@@ -174,6 +192,11 @@ class _MainWindow
 		Action editReplaceAction = new Action(Messages.get("MainWindow.editReplaceAction"), "Shortcut+H", RETWEET,
 				e -> getActiveEditor().find(true),
 				activeFileEditorIsNull);
+		Action editFindInOpenFilesAction = new Action(Messages.get("MainWindow.editFindInOpenFilesAction"), "Shortcut+Shift+F", null,
+				e -> findInOpenFiles(),
+				activeFileEditorIsNull);
+		Action editFindInFolderAction = new Action(Messages.get("MainWindow.editFindInFolderAction"), "Shortcut+Alt+F", null,
+				e -> findInFolder());
 		Action editFindNextAction = new Action(Messages.get("MainWindow.editFindNextAction"), "F3", null,
 				e -> getActiveEditor().findNextPrevious(true),
 				activeFileEditorIsNull);
@@ -273,6 +296,8 @@ class _MainWindow
 				null,
 				editFindAction,
 				editReplaceAction,
+				editFindInOpenFilesAction,
+				editFindInFolderAction,
 				null,
 				editFindNextAction,
 				editFindPreviousAction);
@@ -455,6 +480,18 @@ class _MainWindow
 		Event.fireEvent(window, new WindowEvent(window, WindowEvent.WINDOW_CLOSE_REQUEST));
 	}
 
+	//---- Edit actions -------------------------------------------------------
+
+	private void findInOpenFiles() {
+		borderPane.setBottom(openFilesFindPane.getNode());
+		openFilesFindPane.show();
+	}
+
+	private void findInFolder() {
+		borderPane.setBottom(folderSearchPane.getNode());
+		folderSearchPane.show();
+	}
+
 	//---- Tools actions ------------------------------------------------------
 
 	private void toolsOptions() {
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.fxmisc.richtext.model.StyleSpans;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.parser.Parser;
+
+/**
+ * Process-wide cache of parsed markdown documents.
+ *
+ * Maps text (identified by length and a 64-bit hash, verified by comparing
+ * the text) to the AST parsed from it and the syntax styles computed from
+ * the AST. Used to reuse previous parse and highlighting results after
+ * undo/redo or revert, which often return to an already parsed text.
+ * Syntax styles do not depend on find hits (which are a separate decoration
+ * layer), so they are a function of the text.
+ *
+ * The least recently used entries are evicted if the approximate retained
+ * size of all entries (text, nodes and styles) exceeds a limit.
+ *
+ * Cached ASTs are published ASTs, which are shared and never modified.
+ * All methods are thread-safe.
+ *
+ * @author Karl Tauber
+ */
+class ASTCache
+{
+	private static final long MAX_SIZE = 32 * 1024 * 1024;
+	private static final long NODE_SIZE = 80;
+	private static final long SPAN_SIZE = 32;
+	private static final long RUN_SIZE = 16;
+
+	private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private static long size;
+
+	/**
+	 * Returns the cached entry for the given text and parser; or null.
+	 */
+	static synchronized Entry get(Parser parser, String text, long hash) {
+		Entry entry = entries.get(new Key(text.length(), hash));
+		return (entry != null && entry.parser == parser && entry.text.equals(text)) ? entry : null;
+	}
+
+	static synchronized void put(Entry entry) {
+		if (entry.size > MAX_SIZE)
+			return;
+
+		Entry oldEntry = entries.put(new Key(entry.text.length(), entry.hash), entry);
+		if (oldEntry != null)
+			size -= oldEntry.size;
+		size += entry.size;
+
+		evict();
+	}
+
+	/**
+	 * Stores the syntax styles computed from the AST of the given entry
+	 * (whether or not the entry is in the cache).
+	 */
+	static synchronized void putStyles(Entry entry, Styles styles) {
+		if (entry.styles != null)
+			return;
+
+		entry.styles = styles;
+		entry.size += styles.size;
+
+		if (entries.get(new Key(entry.text.length(), entry.hash)) == entry) {
+			size += styles.size;
+			evict();
+		}
+	}
+
+	/**
+	 * Evicts the least recently used entries.
+	 */
+	private static void evict() {
+		for (Iterator<Entry> it = entries.values().iterator(); size > MAX_SIZE && it.hasNext(); ) {
+			size -= it.next().size;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Computes a 64-bit FNV-1a hash of the given text.
+	 */
+	static long hash(String text) {
+		long hash = 0xcbf29ce484222325L;
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			hash ^= text.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Estimates the retained size (in bytes) of the given text and AST.
+	 */
+	static long estimateSize(String text, Node astRoot) {
+		return 2L * text.length() + NODE_SIZE * countNodes(astRoot);
+	}
+
+	private static long countNodes(Node node) {
+		long count = 1;
+		for (Node child = node.getFirstChild(); child != null; child = child.getNext())
+			count += countNodes(child);
+		return count;
+	}
+
+	//---- class Key ----------------------------------------------------------
+
+	private static class Key
+	{
+		private final int length;
+		private final long hash;
+
+		Key(int length, long hash) {
+			this.length = length;
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return length ^ (int) hash ^ (int) (hash >>> 32);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key key = (Key) obj;
+			return length == key.length && hash == key.hash;
+		}
+	}
+
+	//---- class Entry --------------------------------------------------------
+
+	static class Entry
+	{
+		final Parser parser;
+		final String text;
+		final long hash;
+		final Node astRoot;
+		final boolean hasDocumentScopedBlocks;
+
+		// guarded by ASTCache.class
+		private volatile Styles styles;
+		private long size;
+
+		Entry(Parser parser, String text, long hash, Node astRoot, boolean hasDocumentScopedBlocks) {
+			this.parser = parser;
+			this.text = text;
+			this.hash = hash;
+			this.astRoot = astRoot;
+			this.hasDocumentScopedBlocks = hasDocumentScopedBlocks;
+			this.size = estimateSize(text, astRoot);
+		}
+
+		/**
+		 * Returns the syntax styles computed from the AST; or null if not yet computed.
+		 */
+		Styles getStyles() {
+			return styles;
+		}
+	}
+
+	//---- class Styles -------------------------------------------------------
+
+	/**
+	 * Syntax styles of a text (computed from its AST). Immutable.
+	 */
+	static class Styles
+	{
+		final StyleSpans<Collection<String>> spans;
+		final ParagraphStyleRuns paragraphStyles;
+		private final long size;
+
+		Styles(StyleSpans<Collection<String>> spans, ParagraphStyleRuns paragraphStyles) {
+			this.spans = spans;
+			this.paragraphStyles = paragraphStyles;
+			this.size = SPAN_SIZE * spans.getSpanCount() + RUN_SIZE * paragraphStyles.getRunCount();
+		}
+	}
+}
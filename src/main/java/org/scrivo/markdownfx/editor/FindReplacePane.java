@@ -40,9 +40,7 @@ import static org.fxmisc.wellbehaved.event.InputMap.consume;
 import static org.fxmisc.wellbehaved.event.InputMap.sequence;
 import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import javafx.beans.property.ReadOnlyBooleanProperty;
@@ -50,19 +48,15 @@ import javafx.beans.property.SimpleBooleanProperty;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Tooltip;
-import javafx.scene.layout.Region;
-import org.apache.commons.lang3.StringUtils;
 import org.fxmisc.richtext.StyleClassedTextArea;
-import org.fxmisc.richtext.model.TwoDimensional.Bias;
+import org.fxmisc.richtext.model.PlainTextChange;
 import org.fxmisc.wellbehaved.event.Nodes;
 import org.scrivo.markdownfx.Messages;
 import org.scrivo.markdownfx._MarkdownWriterFXApp;
 import org.scrivo.markdownfx.util.FontAwesomeIconFactory;
 import org.scrivo.markdownfx.util.PrefsBooleanProperty;
-import org.scrivo.markdownfx.util.Range;
 import org.scrivo.markdownfx.util.Utils;
 import org.tbee.javafx.scene.layout.fxml.MigPane;
 import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
@@ -74,6 +68,13 @@ class FindReplacePane
 {
 	interface HitsChangeListener {
 		void hitsChanged();
+
+		/**
+		 * Invoked if only the active hit has changed (hits are unchanged).
+		 */
+		default void activeHitChanged(int oldActiveHitIndex) {
+			hitsChanged();
+		}
 	}
 
 	private static PrefsBooleanProperty matchCase = new PrefsBooleanProperty(
@@ -83,14 +84,21 @@ class FindReplacePane
 
 	private final List<HitsChangeListener> listeners = new ArrayList<>();
 	private final StyleClassedTextArea textArea;
-	private final List<Range> hits = new ArrayList<>();
+	private final FindService findService = new FindService(this::hitsFound);
+	private final HitList hits = new HitList();
 	private int activeHitIndex = -1;
+	private int findAnchor;
+	private boolean selectActiveHitOnFind;
+	private boolean selectLastHitOnFinish;
+	private boolean hitsPending;
 	private String nOfCountFormat;
+	private String nOfMoreCountFormat;
 
-	private Region overviewRuler;
+	private final OverviewRuler.Layer hitMarkers;
 
-	FindReplacePane(StyleClassedTextArea textArea) {
+	FindReplacePane(StyleClassedTextArea textArea, OverviewRuler overviewRuler) {
 		this.textArea = textArea;
+		this.hitMarkers = overviewRuler.addLayer("hit-marker");
 	}
 
 	// 'visible' property
@@ -110,12 +118,16 @@ class FindReplacePane
 			listener.hitsChanged();
 	}
 
-	List<Range> getHits() {
-		return hits;
+	private void fireActiveHitChanged(int oldActiveHitIndex) {
+		for (HitsChangeListener listener : listeners)
+			listener.activeHitChanged(oldActiveHitIndex);
 	}
 
-	Range getActiveHit() {
-		return (activeHitIndex >= 0) ? hits.get(activeHitIndex) : null;
+	/**
+	 * Returns a read-only view of the hits.
+	 */
+	Hits getHits() {
+		return hits;
 	}
 
 	int getActiveHitIndex() {
@@ -126,8 +138,33 @@ class FindReplacePane
 		return activeHitIndex >= 0;
 	}
 
-	void textChanged() {
-		findAll(false);
+	void textChanged(PlainTextChange change) {
+		String text = textArea.getText();
+		if (!findService.textChanged(text, change, hits)) {
+			// old hits no longer match the text (not shifted for the change);
+			// drop them so that replace and next/previous are disabled until
+			// the first hits of the new search arrive
+			hits.clear();
+			activeHitIndex = -1;
+			hitsPending = true;
+			update();
+			fireHitsChanged();
+			updateOverviewRuler();
+
+			findAll(text, findField.getText(), false);
+			return;
+		}
+
+		// hits updated incrementally; find active hit index after current selection
+		activeHitIndex = -1;
+		if (!hits.isEmpty()) {
+			int index = hitIndexAt(textArea.getAnchor());
+			activeHitIndex = (index < hits.size()) ? index : 0; // wrap
+		}
+
+		update();
+		fireHitsChanged();
+		updateOverviewRuler();
 	}
 
 	private void findAll(boolean selectActiveHit) {
@@ -138,6 +175,8 @@ class FindReplacePane
 		findInfoLabel.setText(null);
 
 		if (find.isEmpty()) {
+			findService.cancel();
+			hitsPending = false;
 			clearHits();
 			return;
 		}
@@ -145,50 +184,67 @@ class FindReplacePane
 		boolean matchCase = matchCaseButton.isSelected();
 		boolean regex = regexButton.isSelected();
 
-		hits.clear();
-
-		// find
+		// find in background; hits are streamed to hitsFound()
+		findAnchor = textArea.getAnchor();
+		selectActiveHitOnFind = selectActiveHit;
+		selectLastHitOnFinish = false;
 		if (regex) {
-			String pattern = matchCase ? find : ("(?i)" + find);
 			try {
-				Matcher matcher = Pattern.compile(pattern).matcher(text);
-				while (matcher.find())
-					hits.add(new Range(matcher.start(), matcher.end()));
+				findService.find(text, findAnchor, FindService.compilePattern(find, matchCase));
 			} catch (PatternSyntaxException ex) {
 				findInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexError"));
+				findService.cancel();
+				hitsPending = false;
+				clearHits();
 			}
-		} else {
-			int fromIndex = 0;
-			int hitIndex;
-			while ((hitIndex = matchCase
-					? text.indexOf(find, fromIndex)
-					: StringUtils.indexOfIgnoreCase(text, find, fromIndex)) >= 0)
-			{
-				hits.add(new Range(hitIndex, hitIndex + find.length()));
-				fromIndex = hitIndex + find.length();
-			}
-		}
+		} else
+			findService.find(text, findAnchor, find, matchCase);
+	}
 
-		if (hits.isEmpty()) {
-			setActiveHitIndex(-1, selectActiveHit);
-			updateOverviewRuler();
-			return;
+	private void hitsFound(HitList newHits, boolean first, boolean finished) {
+		if (first) {
+			hits.clear();
+			activeHitIndex = -1;
+			hitsPending = false;
 		}
+		hits.addAll(newHits);
 
-		// find active hit index after current selection
-		int anchor = textArea.getAnchor();
-		int index = Collections.binarySearch(hits, new Range(anchor, anchor), (r1, r2) -> {
-			return r1.end - r2.start;
-		});
-		if (index < 0) {
-			index = -index - 1;
-			if (index >= hits.size())
+		if (activeHitIndex < 0) {
+			// find active hit index after current selection (may be in a later batch)
+			int index = hitIndexAt(findAnchor);
+
+			if (index >= hits.size() && finished && !hits.isEmpty())
 				index = 0; // wrap
+
+			if (index < hits.size()) {
+				activeHitIndex = index;
+				if (selectActiveHitOnFind)
+					selectActiveHit();
+			}
+		}
+
+		if (finished && selectLastHitOnFinish) {
+			// remaining hits of capped search found; wrap to last hit
+			selectLastHitOnFinish = false;
+			activeHitIndex = hits.size() - 1;
+			selectActiveHit();
 		}
-		setActiveHitIndex(index, selectActiveHit);
+
+		if (finished && findService.isTimedOut())
+			findInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexTimeout"));
+
+		update();
+		fireHitsChanged();
 		updateOverviewRuler();
 	}
 
+	/**
+	 * Returns the index of the first hit that ends at or after the given offset.
+	 */
+	private int hitIndexAt(int offset) {
+		return hits.firstEndingAfter(offset - 1);
+	}
+
 	private void clearHits() {
 		hits.clear();
 		setActiveHitIndex(-1, false);
@@ -200,10 +256,17 @@ class FindReplacePane
 			return;
 
 		int previous = activeHitIndex - 1;
-		if (previous < 0)
+		if (previous < 0) {
+			// wrap to last hit; find remaining hits of capped search in background
+			// first (the last hit is selected in hitsFound() when finished)
+			if (findService.findRemaining(textArea.getText(), hits)) {
+				selectLastHitOnFinish = true;
+				return;
+			}
 			previous = hits.size() - 1;
+		}
 
-		setActiveHitIndex(previous, true);
+		moveActiveHit(previous, false);
 	}
 
 	void findNext() {
@@ -211,10 +274,36 @@ class FindReplacePane
 			return;
 
 		int next = activeHitIndex + 1;
-		if (next >= hits.size())
-			next = 0;
+		boolean moreHits = false;
+		if (next >= hits.size()) {
+			// find next hit of capped search or wrap to first hit
+			moreHits = findMore(1);
+			if (!moreHits)
+				next = 0;
+		}
+
+		moveActiveHit(next, moreHits);
+	}
 
-		setActiveHitIndex(next, true);
+	private boolean findMore(int count) {
+		boolean found = findService.findMore(textArea.getText(), hits, count);
+		if (findService.isTimedOut())
+			findInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexTimeout"));
+		return found;
+	}
+
+	private void moveActiveHit(int index, boolean hitsChanged) {
+		int oldActiveHitIndex = activeHitIndex;
+		activeHitIndex = index;
+
+		update();
+		selectActiveHit();
+
+		if (hitsChanged) {
+			fireHitsChanged();
+			updateOverviewRuler();
+		} else
+			fireActiveHitChanged(oldActiveHitIndex);
 	}
 
 	private void setActiveHitIndex(int index, boolean selectActiveHit) {
@@ -236,28 +325,40 @@ class FindReplacePane
 		if (activeHitIndex < 0)
 			return;
 
-		Range activeHit = getActiveHit();
-		textArea.selectRange(activeHit.start, activeHit.end);
+		textArea.selectRange(hits.start(activeHitIndex), hits.end(activeHitIndex));
 	}
 
 	private void replace() {
 		Utils.error(replaceField, false);
 		replaceInfoLabel.setText(null);
 
-		Range activeHit = getActiveHit();
-		if (activeHit == null)
+		if (activeHitIndex < 0)
 			return;
 
+		int activeHitStart = hits.start(activeHitIndex);
+		int activeHitEnd = hits.end(activeHitIndex);
 		String replace = replaceField.getText();
 		Pattern regexReplacePattern = regexReplacePattern();
 		if (regexReplacePattern != null) {
-			replace = regexReplace(regexReplacePattern, activeHit, replace);
+			replace = regexReplace(regexReplacePattern, activeHitStart, activeHitEnd, replace);
 			if (replace == null)
 				return; // error
 		}
-		textArea.replaceText(activeHit.start, activeHit.end, replace);
+		textArea.replaceText(activeHitStart, activeHitEnd, replace);
+
+		// hits have been updated in textChanged(); select next hit after the replacement
+		int replaceEnd = activeHitStart + replace.length();
+		if (hitsPending) {
+			// hits are searched again in background; select next hit when found
+			findAnchor = replaceEnd;
+			selectActiveHitOnFind = true;
+			return;
+		}
+		if (hits.isEmpty())
+			return;
 
-		selectActiveHit();
+		int next = hitIndexAt(replaceEnd);
+		moveActiveHit((next < hits.size()) ? next : 0, false); // wrap
 	}
 
 	private void replaceAll() {
@@ -267,33 +368,34 @@ class FindReplacePane
 		if (hits.isEmpty())
 			return;
 
-		// Note: using single textArea.replaceText() to avoid multiple changes to undo history
+		// replace all hits in background (also hits not collected by a capped search)
+		findService.replaceAll(textArea.getText(), replaceField.getText(),
+			this::replaceAllProgress, this::replaceAllFinished);
+	}
 
-		final String replace = replaceField.getText();
-		Range first = hits.get(0);
-		Range last = hits.get(hits.size() - 1);
-		Pattern regexReplacePattern = regexReplacePattern();
+	private void replaceAllProgress(double progress) {
+		replaceInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.replacing", progress));
+	}
 
-		int estimatedSize = last.end - first.start + (replace.length() * hits.size());
-		StringBuilder buf = new StringBuilder(estimatedSize);
-		Range prev = null;
-		for (Range hit : hits) {
-			if (prev != null)
-				buf.append(textArea.getText(prev.end, hit.start));
-
-			String replace2 = replace;
-			if (regexReplacePattern != null) {
-				replace2 = regexReplace(regexReplacePattern, hit, replace);
-				if (replace2 == null)
-					return; // error
-			}
-			buf.append(replace2);
-			prev = hit;
+	private void replaceAllFinished(FindService.Replacement replacement) {
+		replaceInfoLabel.setText(null);
+
+		if (replacement.timedOut) {
+			replaceInfoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexTimeout"));
+			return;
 		}
+		if (replacement.error != null) {
+			Utils.error(replaceField, true);
+			replaceInfoLabel.setText(replacement.error);
+			return;
+		}
+		if (replacement.text == null)
+			return; // no hits
 
-		textArea.replaceText(first.start, last.end, buf.toString());
+		// Note: using single textArea.replaceText() to avoid multiple changes to undo history
+		textArea.replaceText(replacement.start, replacement.end, replacement.text);
 
-		int caret = first.start + buf.length();
+		int caret = replacement.start + replacement.text.length();
 		textArea.selectRange(caret, caret);
 		textArea.requestFocus();
 	}
@@ -309,18 +411,16 @@ class FindReplacePane
 			return null;
 		}
 
-		String find = findField.getText();
-		String pattern = matchCaseButton.isSelected() ? find : ("(?i)" + find);
 		try {
-			return Pattern.compile(pattern);
+			return FindService.compilePattern(findField.getText(), matchCaseButton.isSelected());
 		} catch (PatternSyntaxException ex) {
 			return null;
 		}
 	}
 
-	private String regexReplace(Pattern regexReplacePattern, Range hit, String replace) {
+	private String regexReplace(Pattern regexReplacePattern, int hitStart, int hitEnd, String replace) {
 		try {
-			String text = textArea.getText(hit.start, hit.end);
+			String text = textArea.getText(hitStart, hitEnd);
 			return regexReplacePattern.matcher(text).replaceFirst(replace);
 		} catch (IllegalArgumentException|IndexOutOfBoundsException ex) {
 			Utils.error(replaceField, true);
@@ -330,100 +430,21 @@ class FindReplacePane
 	}
 
 	private void updateOverviewRuler() {
-		if (overviewRuler == null) {
-			if (hits.isEmpty())
-				return;
-
-			ScrollBar vScrollBar = Utils.findVScrollBar(textArea.getParent());
-			if (vScrollBar == null)
-				return;
-
-			overviewRuler = (Region) vScrollBar.lookup(".track");
-			if (overviewRuler == null)
-				return;
-
-			overviewRuler.heightProperty().addListener((ob) -> updateOverviewRuler());
-		}
-
-		if (hits.isEmpty() || !overviewRuler.isVisible()) {
-			overviewRuler.setStyle(null);
-			return;
-		}
-
-		int hitCount = hits.size();
-		double height = overviewRuler.getHeight();
-		int lineCount = textArea.getParagraphs().size();
-
-		// compute top insets of hits
-		int[] markerY = new int[hitCount];
-		int[] markerHeight = new int[hitCount];
-		boolean hasMergedMarker = false;
-		int markerCount = 0;
-		int previousY = -100;
-		for (Range hit : hits) {
-			int line = textArea.offsetToPosition(hit.start, Bias.Backward).getMajor();
-			int y = (int) (height * line / lineCount);
-			if (y < 0 || y == previousY)
-				continue; // avoid duplicates
-
-			if (y - 1 == previousY) {
-				// merge with previous
-				markerHeight[markerCount - 1]++;
-				hasMergedMarker = true;
-				previousY = y;
-				continue;
-			}
-
-			previousY = y;
-
-			markerY[markerCount] = y;
-			markerHeight[markerCount] = 1;
-			markerCount++;
-		}
-
-		// build CSS border width and colors
-		StringBuilder buf = new StringBuilder();
-		buf.append("-fx-border-width: ");
-		if (hasMergedMarker) {
-			for (int i = 0; i < markerCount; i++) {
-				if (markerHeight[i] > 1)
-					buf.append(markerHeight[i]).append( " 0 0 0,");
-			}
-		}
-		buf.append( "1 0 0 0; -fx-border-color: ");
-		for (int i = 0; i < markerCount; i++) {
-			if (i > 0)
-				buf.append(',');
-			buf.append("-mwfx-hit");
-		}
-
-		// build CSS border insets
-		buf.append("; -fx-border-insets: ");
-		if (hasMergedMarker) {
-			for (int i = 0; i < markerCount; i++) {
-				if (markerHeight[i] > 1)
-					buf.append(markerY[i]).append(" 0 0 0,");
-			}
-		}
-		for (int i = 0; i < markerCount; i++) {
-			if (markerHeight[i] == 1)
-				buf.append(markerY[i]).append(" 0 0 0,");
-		}
-		buf.setLength(buf.length() - 1); // remove last ','
-
-		overviewRuler.setStyle(buf.toString());
+		hitMarkers.setMarkers(hits);
 	}
 
 	private void update() {
-		Utils.error(findField, activeHitIndex < 0 && !findField.getText().isEmpty());
+		Utils.error(findField, activeHitIndex < 0 && !findField.getText().isEmpty() && !hitsPending);
 
 		nOfHitCountLabel.setText(findField.getText().isEmpty()
 				? ""
-				: MessageFormat.format(nOfCountFormat, activeHitIndex + 1, hits.size()));
+				: MessageFormat.format(findService.isCapped() ? nOfMoreCountFormat : nOfCountFormat,
+					activeHitIndex + 1, hits.size()));
 
 		boolean disabled = hits.isEmpty();
 		previousButton.setDisable(disabled);
 		nextButton.setDisable(disabled);
+		replaceButton.setDisable(activeHitIndex < 0);
 	}
 
 	Node getNode() {
@@ -481,6 +502,7 @@ class FindReplacePane
 		regexButton.setSelected(regex.get());
 
 		nOfCountFormat = nOfHitCountLabel.getText();
+		nOfMoreCountFormat = Messages.get("FindReplacePane.nOfHitCountLabel.moreText");
 
 
 		replacePane.setVisible(false);
@@ -509,7 +531,7 @@ class FindReplacePane
 
 		boolean oldVisible = visible.get();
 		visible.set(true);
-		textChanged();
+		findAll(false);
 
 		if (findSelection) {
 			String selectedText = textArea.getSelectedText();
@@ -526,6 +548,7 @@ class FindReplacePane
 	void hide() {
 		visible.set(false);
 		replacePane.setVisible(false);
+		findService.cancel();
 		clearHits();
 	}
 
@@ -0,0 +1,876 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javafx.application.Platform;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.scrivo.markdownfx.options.Options;
+import org.scrivo.markdownfx.util.LiteralMatcher;
+
+/**
+ * Finds all hits in a background thread.
+ *
+ * Scans a text snapshot and streams the hits back to the JavaFX application
+ * thread in batches, so that the hit count and the overview ruler can be
+ * updated progressively for large documents. Only one search per editor runs
+ * at a time. Starting a new search (newer find text or text change)
+ * cancels the running one; results of canceled searches are dropped.
+ *
+ * On text changes, the hits of the last (finished) search are updated
+ * incrementally: hits before the change are kept, hits after the change are
+ * shifted and only a window around the change is rescanned, until the
+ * rescanned hits are in sync with the shifted old hits again.
+ *
+ * A search stops collecting hits after the maximum number of hits
+ * (see {@link Options#getFindMaxHits()}) is reached behind the anchor offset.
+ * Further hits of such a capped search are found lazily on demand
+ * (see {@link #findMore(String, HitList, int)}).
+ *
+ * Regular expression matching is time limited to abort runaway matching
+ * (e.g. catastrophic backtracking) of pathological patterns.
+ *
+ * Replace all is also done in a background thread, in a single pass over
+ * a text snapshot (using Matcher.appendReplacement() for regular expressions,
+ * so that look-behinds see the whole text).
+ *
+ * All methods must be invoked on the JavaFX application thread.
+ * The listener is also invoked on the JavaFX application thread.
+ *
+ * @author Karl Tauber
+ */
+class FindService
+{
+	interface HitsListener {
+		/**
+		 * Invoked for each batch of hits (in text order).
+		 *
+		 * @param first whether this is the first batch of a search
+		 * @param finished whether this is the last batch of a search
+		 */
+		void hitsFound(HitList hits, boolean first, boolean finished);
+	}
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "markdown-find");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final int MAX_BATCH_SIZE = 1000;			// hits
+	private static final long MAX_BATCH_DELAY = 50_000_000;	// nanoseconds
+	private static final int MAX_RESCAN_LENGTH = 64 * 1024;	// characters
+	private static final long MAX_MATCH_TIME = 500_000_000;	// nanoseconds
+	private static final long PROGRESS_DELAY = 100_000_000;	// nanoseconds
+	private static final int PATTERN_CACHE_SIZE = 16;
+
+	private static final Map<String, Pattern> patternCache = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+			return size() > PATTERN_CACHE_SIZE;
+		}
+	};
+
+	private final HitsListener listener;
+	private Query query;
+	private Search search;
+	private ReplaceAll replaceAll;
+	private boolean capped;
+	private boolean timedOut;
+
+	FindService(HitsListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Compiles the given regular expression, or returns the cached pattern
+	 * if it was compiled recently.
+	 *
+	 * @throws PatternSyntaxException if the regular expression is invalid
+	 */
+	static Pattern compilePattern(String regex, boolean matchCase) {
+		int flags = matchCase ? 0 : Pattern.CASE_INSENSITIVE;
+		String key = flags + ":" + regex;
+		synchronized (patternCache) {
+			Pattern pattern = patternCache.get(key);
+			if (pattern == null) {
+				pattern = Pattern.compile(regex, flags);
+				patternCache.put(key, pattern);
+			}
+			return pattern;
+		}
+	}
+
+	/**
+	 * Starts finding all occurrences of the given string in the given text.
+	 *
+	 * @param anchor hits are collected at least up to this offset
+	 */
+	void find(String text, int anchor, String find, boolean matchCase) {
+		start(new LiteralQuery(find, matchCase), text, anchor);
+	}
+
+	/**
+	 * Starts finding all matches of the given regular expression in the given text.
+	 *
+	 * @param anchor hits are collected at least up to this offset
+	 */
+	void find(String text, int anchor, Pattern pattern) {
+		start(new RegexQuery(pattern), text, anchor);
+	}
+
+	/**
+	 * Cancels the running search (and replace all) and forgets the last search.
+	 */
+	void cancel() {
+		if (search != null) {
+			search.canceled = true;
+			search = null;
+		}
+		cancelReplaceAll();
+		query = null;
+		capped = false;
+		timedOut = false;
+	}
+
+	/**
+	 * Creates a query for the given find string.
+	 *
+	 * @throws PatternSyntaxException if 'regex' is true and the find string is invalid
+	 */
+	static Query createQuery(String find, boolean matchCase, boolean regex) {
+		return regex
+			? new RegexQuery(compilePattern(find, matchCase))
+			: new LiteralQuery(find, matchCase);
+	}
+
+	/**
+	 * Finds (at most 'maxHits') hits of the given query in the given text.
+	 * Returns null if matching was aborted (takes too long or canceled).
+	 *
+	 * Runs in the current thread and can be invoked in any thread.
+	 */
+	static HitList findAll(Query query, String text, int maxHits, BooleanSupplier canceled) {
+		HitList hits = new HitList();
+		try {
+			Scanner scanner = query.scanner(text, 0, text.length(), canceled);
+			while (hits.size() < maxHits && scanner.find())
+				hits.add(scanner.start, scanner.end);
+		} catch (MatchAbortedException ex) {
+			return null;
+		}
+		return hits;
+	}
+
+	/**
+	 * Replaces all hits of the given query in the given text, in a single pass.
+	 * Returns null if canceled.
+	 *
+	 * Runs in the current thread and can be invoked in any thread.
+	 * 'progress' is invoked (in the current thread) periodically
+	 * with values from 0 to 1 if replacing takes longer.
+	 */
+	static Replacement replaceAll(Query query, String text, String replace,
+		BooleanSupplier canceled, DoubleConsumer progress)
+	{
+		// the buffer contains the unchanged text before the first hit,
+		// which is not part of the replacement
+		StringBuffer buf = new StringBuffer(text.length());
+		int firstStart = -1;
+		int lastEnd = -1;
+		String error = null;
+		boolean timedOut = false;
+		long progressTime = System.nanoTime();
+		try {
+			Scanner scanner = query.scanner(text, 0, text.length(), canceled);
+			while (!canceled.getAsBoolean() && scanner.find()) {
+				if (firstStart < 0)
+					firstStart = scanner.start;
+				scanner.appendReplacement(buf, replace);
+				lastEnd = scanner.end;
+
+				long time = System.nanoTime();
+				if (time - progressTime >= PROGRESS_DELAY) {
+					progressTime = time;
+					progress.accept((double) lastEnd / text.length());
+				}
+			}
+		} catch (MatchAbortedException ex) {
+			timedOut = true;
+		} catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+			error = ex.getMessage();
+		}
+		if (canceled.getAsBoolean())
+			return null;
+
+		String replacement = (firstStart >= 0 && error == null && !timedOut)
+			? buf.substring(firstStart)
+			: null;
+		return new Replacement(firstStart, lastEnd, replacement, error, timedOut);
+	}
+
+	/**
+	 * Starts replacing all hits of the last search in the given text.
+	 *
+	 * The 'finished' consumer is invoked with the range of the text
+	 * (from the first to the last hit) and its replacement, which should
+	 * be applied as single change. 'progress' is invoked periodically
+	 * (with values from 0 to 1) when replacing takes longer.
+	 * Nothing is invoked if replacing is canceled (e.g. on text changes).
+	 */
+	void replaceAll(String text, String replace, DoubleConsumer progress, Consumer<Replacement> finished) {
+		cancelReplaceAll();
+		if (query == null)
+			return;
+
+		replaceAll = new ReplaceAll(query, text, replace, progress, finished);
+		executor.execute(replaceAll);
+	}
+
+	private void cancelReplaceAll() {
+		if (replaceAll != null) {
+			replaceAll.canceled = true;
+			replaceAll = null;
+		}
+	}
+
+	/**
+	 * Returns whether the last search stopped collecting hits
+	 * before the end of the text was reached.
+	 */
+	boolean isCapped() {
+		return capped;
+	}
+
+	/**
+	 * Returns whether matching of the last search was aborted
+	 * because it took too long.
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Finds (at most 'count') hits after the last hit of a capped search
+	 * and appends them to the given hits. Returns false if no hits were found.
+	 *
+	 * @param text the current text
+	 * @param hits the hits of the last search; updated in place
+	 */
+	boolean findMore(String text, HitList hits, int count) {
+		if (query == null || search != null || !capped)
+			return false;
+
+		// continue where the search stopped (behind an empty hit like Matcher.find())
+		int lastStart = hits.start(hits.size() - 1);
+		int lastEnd = hits.end(hits.size() - 1);
+		int from = (lastEnd > lastStart) ? lastEnd : lastEnd + 1;
+
+		int oldHitCount = hits.size();
+		try {
+			Scanner scanner = (from <= text.length())
+				? query.scanner(text, from, text.length(), null)
+				: null;
+			while (hits.size() - oldHitCount < count) {
+				if (scanner == null || !scanner.find()) {
+					capped = false;
+					break;
+				}
+				hits.add(scanner.start, scanner.end);
+			}
+		} catch (MatchAbortedException ex) {
+			capped = false;
+			timedOut = true;
+		}
+		return hits.size() > oldHitCount;
+	}
+
+	/**
+	 * Starts finding all remaining hits after the last hit of a capped search
+	 * in a background thread. The hits are passed to the listener (appended
+	 * to the existing hits). Returns false if there is no capped search.
+	 *
+	 * @param text the current text
+	 * @param hits the hits of the last search
+	 */
+	boolean findRemaining(String text, HitList hits) {
+		if (query == null || search != null || !capped)
+			return false;
+
+		// continue where the search stopped (behind an empty hit like Matcher.find())
+		int lastStart = hits.start(hits.size() - 1);
+		int lastEnd = hits.end(hits.size() - 1);
+		int from = (lastEnd > lastStart) ? lastEnd : lastEnd + 1;
+
+		if (from > text.length()) {
+			capped = false;
+			return false;
+		}
+
+		// 'capped' is updated when the search finished
+		search = new Search(query, text, from, from, Integer.MAX_VALUE);
+		search.first = false;
+		executor.execute(search);
+		return true;
+	}
+
+	/**
+	 * Updates the hits of the last search for the given text change.
+	 *
+	 * Returns false if this is not possible (no finished search, a query
+	 * whose hits may span lines or the rescanned window does not get in sync
+	 * with the old hits); then a new search must be started.
+	 *
+	 * @param text the changed text
+	 * @param hits the hits of the last search; updated in place
+	 */
+	boolean textChanged(String text, PlainTextChange change, HitList hits) {
+		// result of replace all would no longer match the text
+		cancelReplaceAll();
+
+		if (query == null || search != null || !query.isLineLocal())
+			return false;
+
+		try {
+			return textChangedImpl(text, change, hits);
+		} catch (MatchAbortedException ex) {
+			return false;
+		}
+	}
+
+	private boolean textChangedImpl(String text, PlainTextChange change, HitList hits) {
+		int position = change.getPosition();
+		int removalEnd = change.getRemovalEnd();
+		int insertionEnd = change.getInsertionEnd();
+		int delta = insertionEnd - removalEnd;
+
+		// hits that end before the window are not affected by the change
+		int windowStart = query.windowStart(text, position);
+		if (capped && !hits.isEmpty() && windowStart >= hits.end(hits.size() - 1))
+			return true; // change is behind the hits of a capped search
+
+		int firstAffected = hits.firstEndingAfter(windowStart);
+		int scanFrom = (firstAffected < hits.size())
+			? Math.min(windowStart, hits.start(firstAffected))
+			: windowStart;
+
+		// rescan until a new hit is equal to a (shifted) old hit after the change
+		int syncStart = query.syncStart(text, insertionEnd);
+		int scanTo = (int) Math.min((long) syncStart + MAX_RESCAN_LENGTH, text.length());
+		int oldIndex = hits.firstStartingAt(removalEnd);
+		int syncIndex = -1;
+		HitList newHits = new HitList();
+		Scanner scanner = query.scanner(text, scanFrom, scanTo, null);
+		while (scanner.find()) {
+			int start = scanner.start;
+			int end = scanner.end;
+			if (start >= syncStart) {
+				while (oldIndex < hits.size() && hits.start(oldIndex) + delta < start)
+					oldIndex++;
+				if (oldIndex < hits.size() &&
+					hits.start(oldIndex) + delta == start &&
+					hits.end(oldIndex) + delta == end)
+				{
+					syncIndex = oldIndex;
+					break;
+				}
+			}
+			newHits.add(start, end);
+		}
+
+		if (syncIndex < 0) {
+			if (scanTo < text.length())
+				return false; // not in sync within the rescan window
+			syncIndex = hits.size(); // rescanned to the end of the text
+			capped = false;
+		}
+
+		// shift hits after the change and replace affected hits
+		hits.shift(syncIndex, delta);
+		hits.replace(firstAffected, syncIndex, newHits);
+		return true;
+	}
+
+	private void start(Query query, String text, int anchor) {
+		cancel();
+
+		this.query = query;
+		search = new Search(query, text, 0, anchor, Options.getFindMaxHits());
+		executor.execute(search);
+	}
+
+	private void publish(Search search, HitList hits, boolean first, boolean finished) {
+		// drop results of canceled searches
+		if (search != this.search)
+			return;
+
+		if (finished) {
+			this.search = null;
+			capped = search.capped;
+			timedOut = search.timedOut;
+		}
+
+		listener.hitsFound(hits, first, finished);
+	}
+
+	//---- class Query --------------------------------------------------------
+
+	/**
+	 * A search query. Immutable and thread-safe.
+	 */
+	static abstract class Query
+	{
+		/**
+		 * Returns a scanner that finds the hits in the given text,
+		 * starting at 'from' and ending at or before 'to'.
+		 *
+		 * The scanner may throw {@link MatchAbortedException} if matching
+		 * takes too long or the given 'canceled' supplier (may be null) returns true.
+		 */
+		abstract Scanner scanner(String text, int from, int to, BooleanSupplier canceled);
+
+		/**
+		 * Returns the offset before which hits are not affected
+		 * by a change at the given position.
+		 */
+		abstract int windowStart(String text, int position);
+
+		/**
+		 * Returns the offset from which hits are no longer affected
+		 * by a change that ends at the given position.
+		 */
+		abstract int syncStart(String text, int position);
+
+		/**
+		 * Returns whether hits are affected only by changes within the lines
+		 * that they touch, which is required for incremental updates.
+		 */
+		boolean isLineLocal() {
+			return true;
+		}
+	}
+
+	//---- class LiteralQuery -------------------------------------------------
+
+	private static class LiteralQuery
+		extends Query
+	{
+		private final LiteralMatcher matcher;
+
+		LiteralQuery(String find, boolean matchCase) {
+			matcher = new LiteralMatcher(find, matchCase);
+		}
+
+		@Override
+		Scanner scanner(String text, int from, int to, BooleanSupplier canceled) {
+			return new Scanner() {
+				private int fromIndex = from;
+				private int appendIndex = from;
+
+				@Override
+				boolean find() {
+					int hitIndex = matcher.indexOf(text, fromIndex, to);
+					if (hitIndex < 0)
+						return false;
+
+					start = hitIndex;
+					end = hitIndex + matcher.length();
+					fromIndex = end;
+					return true;
+				}
+
+				@Override
+				void appendReplacement(StringBuffer buf, String replace) {
+					buf.append(text, appendIndex, start).append(replace);
+					appendIndex = end;
+				}
+			};
+		}
+
+		@Override
+		int windowStart(String text, int position) {
+			// a changed hit starts at most (length - 1) characters before the change
+			return Math.max(position - (matcher.length() - 1), 0);
+		}
+
+		@Override
+		int syncStart(String text, int position) {
+			return position;
+		}
+	}
+
+	//---- class RegexQuery ---------------------------------------------------
+
+	/**
+	 * Matches of regular expressions may have any length and may depend on
+	 * surrounding characters (e.g. boundaries or lookarounds), so the changed
+	 * lines are rescanned completely.
+	 *
+	 * Patterns that may match line separators (e.g. DOTALL, \s, \n or
+	 * negated character classes) may reach (or look at) any line, so their
+	 * hits are not updated incrementally.
+	 */
+	private static class RegexQuery
+		extends Query
+	{
+		private final Pattern pattern;
+		private final boolean lineLocal;
+
+		RegexQuery(Pattern pattern) {
+			this.pattern = pattern;
+			this.lineLocal = !mayMatchLineSeparator(pattern);
+		}
+
+		/**
+		 * Conservatively checks whether the given pattern may match
+		 * a line separator. May return true for patterns that actually can not.
+		 */
+		private static boolean mayMatchLineSeparator(Pattern pattern) {
+			if ((pattern.flags() & Pattern.DOTALL) != 0)
+				return true;
+
+			String regex = pattern.pattern();
+			int length = regex.length();
+			for (int i = 0; i < length; i++) {
+				char ch = regex.charAt(i);
+				switch (ch) {
+					case '\n':
+					case '\r':
+						return true;
+
+					case '\\':
+						if (++i >= length)
+							break;
+						// \s, \n, \R, \W, etc may match line separators;
+						// hex, octal, unicode and control escapes may denote them
+						if ("snrRvWDHPpX0xuc".indexOf(regex.charAt(i)) >= 0)
+							return true;
+						break;
+
+					case '[':
+						// negated character class
+						if (i + 1 < length && regex.charAt(i + 1) == '^')
+							return true;
+						break;
+
+					case '(':
+						// embedded flags; e.g. (?s) or (?is:...)
+						if (i + 1 < length && regex.charAt(i + 1) == '?') {
+							for (int j = i + 2; j < length && Character.isLetter(regex.charAt(j)); j++) {
+								if (regex.charAt(j) == 's')
+									return true;
+							}
+						}
+						break;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		boolean isLineLocal() {
+			return lineLocal;
+		}
+
+		@Override
+		Scanner scanner(String text, int from, int to, BooleanSupplier canceled) {
+			TimeLimitedText limitedText = new TimeLimitedText(text, canceled);
+			Matcher matcher = pattern.matcher(limitedText);
+			matcher.useTransparentBounds(true);
+			matcher.useAnchoringBounds(false);
+			matcher.region(from, to);
+			return new Scanner() {
+				@Override
+				boolean find() {
+					limitedText.startMatch();
+					if (!matcher.find())
+						return false;
+
+					start = matcher.start();
+					end = matcher.end();
+					return true;
+				}
+
+				@Override
+				void appendReplacement(StringBuffer buf, String replace) {
+					// may throw IllegalArgumentException or IndexOutOfBoundsException
+					// on invalid group references in replacement
+					matcher.appendReplacement(buf, replace);
+				}
+			};
+		}
+
+		@Override
+		int windowStart(String text, int position) {
+			// beginning of line
+			return (position > 0) ? text.lastIndexOf('\n', position - 1) + 1 : 0;
+		}
+
+		@Override
+		int syncStart(String text, int position) {
+			// beginning of next line
+			int lineEnd = text.indexOf('\n', position);
+			return (lineEnd >= 0) ? lineEnd + 1 : text.length();
+		}
+	}
+
+	//---- class Scanner ------------------------------------------------------
+
+	private static abstract class Scanner
+	{
+		int start;
+		int end;
+
+		/**
+		 * Finds the next hit. Returns false if there are no more hits.
+		 */
+		abstract boolean find();
+
+		/**
+		 * Appends the text between the previous hit (or the beginning of
+		 * the scanned range) and the current hit, followed by the replacement
+		 * for the current hit.
+		 */
+		abstract void appendReplacement(StringBuffer buf, String replace);
+	}
+
+	//---- class TimeLimitedText ----------------------------------------------
+
+	/**
+	 * Text wrapper that aborts matching (by throwing MatchAbortedException
+	 * from charAt()) if a match takes too long or if the search was canceled.
+	 * The regex engine accesses the text only via charAt() while matching.
+	 */
+	private static class TimeLimitedText
+		implements CharSequence
+	{
+		private static final int CHECK_INTERVAL = 1024; // charAt() invocations
+
+		private final String text;
+		private final BooleanSupplier canceled;
+		private long deadline;
+		private int checkCountdown = CHECK_INTERVAL;
+
+		TimeLimitedText(String text, BooleanSupplier canceled) {
+			this.text = text;
+			this.canceled = canceled;
+		}
+
+		void startMatch() {
+			deadline = System.nanoTime() + MAX_MATCH_TIME;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (--checkCountdown <= 0) {
+				checkCountdown = CHECK_INTERVAL;
+				if (System.nanoTime() - deadline > 0 ||
+					(canceled != null && canceled.getAsBoolean()))
+					throw new MatchAbortedException();
+			}
+			return text.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return text.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return text.subSequence(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+
+	//---- class MatchAbortedException ----------------------------------------
+
+	@SuppressWarnings("serial")
+	private static class MatchAbortedException
+		extends RuntimeException
+	{
+		MatchAbortedException() {
+			super(null, null, false, false); // no stack trace
+		}
+	}
+
+	//---- class Search -------------------------------------------------------
+
+	private class Search
+		implements Runnable
+	{
+		private final Query query;
+		private final String text;
+		private final int from;
+		private final int anchor;
+		private final int maxHits;
+		volatile boolean canceled;
+
+		// results; read on the JavaFX application thread when finished
+		boolean capped;
+		boolean timedOut;
+
+		private HitList batch = new HitList();
+		boolean first = true;
+		private long batchStartTime;
+		private int hitCount;
+		private int lastHitEnd = -1;
+
+		Search(Query query, String text, int from, int anchor, int maxHits) {
+			this.query = query;
+			this.text = text;
+			this.from = from;
+			this.anchor = anchor;
+			this.maxHits = maxHits;
+		}
+
+		@Override
+		public void run() {
+			batchStartTime = System.nanoTime();
+			try {
+				Scanner scanner = query.scanner(text, from, text.length(), () -> canceled);
+				while (!canceled && scanner.find()) {
+					// stop collecting if there are enough hits (and the hit at the
+					// anchor is collected), but only if there are more hits
+					if (hitCount >= maxHits && lastHitEnd >= anchor) {
+						capped = true;
+						break;
+					}
+					hitFound(scanner.start, scanner.end);
+				}
+			} catch (MatchAbortedException ex) {
+				timedOut = !canceled;
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+			if (!canceled)
+				flush(true);
+		}
+
+		private void hitFound(int start, int end) {
+			batch.add(start, end);
+			hitCount++;
+			lastHitEnd = end;
+
+			if (batch.size() >= MAX_BATCH_SIZE || System.nanoTime() - batchStartTime >= MAX_BATCH_DELAY)
+				flush(false);
+		}
+
+		private void flush(boolean finished) {
+			HitList hits = batch;
+			boolean first = this.first;
+			Platform.runLater(() -> publish(this, hits, first, finished));
+
+			batch = new HitList();
+			this.first = false;
+			batchStartTime = System.nanoTime();
+		}
+	}
+
+	//---- class Replacement --------------------------------------------------
+
+	/**
+	 * Result of replace all.
+	 */
+	static class Replacement
+	{
+		/** Range of replaced text (from first to last hit); -1 if there are no hits. */
+		final int start;
+		final int end;
+		/** Replacement text; null if there are no hits or on errors. */
+		final String text;
+		/** Error message of invalid replacement; or null. */
+		final String error;
+		final boolean timedOut;
+
+		Replacement(int start, int end, String text, String error, boolean timedOut) {
+			this.start = start;
+			this.end = end;
+			this.text = text;
+			this.error = error;
+			this.timedOut = timedOut;
+		}
+	}
+
+	//---- class ReplaceAll ---------------------------------------------------
+
+	private class ReplaceAll
+		implements Runnable
+	{
+		private final Query query;
+		private final String text;
+		private final String replace;
+		private final DoubleConsumer progress;
+		private final Consumer<Replacement> finished;
+		volatile boolean canceled;
+
+		ReplaceAll(Query query, String text, String replace,
+			DoubleConsumer progress, Consumer<Replacement> finished)
+		{
+			this.query = query;
+			this.text = text;
+			this.replace = replace;
+			this.progress = progress;
+			this.finished = finished;
+		}
+
+		@Override
+		public void run() {
+			Replacement result = replaceAll(query, text, replace, () -> canceled, value -> {
+				Platform.runLater(() -> {
+					if (this == replaceAll)
+						progress.accept(value);
+				});
+			});
+			if (result == null)
+				return; // canceled
+
+			Platform.runLater(() -> {
+				// drop results of canceled replace all
+				if (this != replaceAll)
+					return;
+
+				replaceAll = null;
+				finished.accept(result);
+			});
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of find hits.
+ *
+ * Stores the start and end offsets of the hits in primitive arrays
+ * (no object per hit), so that searching for a frequent word in a large
+ * document does not create hundreds of thousands of objects.
+ *
+ * @author Karl Tauber
+ */
+class HitList
+	implements Hits
+{
+	private int[] starts;
+	private int[] ends;
+	private int size;
+
+	HitList() {
+		this(16);
+	}
+
+	HitList(int initialCapacity) {
+		starts = new int[initialCapacity];
+		ends = new int[initialCapacity];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int start(int index) {
+		return starts[index];
+	}
+
+	@Override
+	public int end(int index) {
+		return ends[index];
+	}
+
+	void add(int start, int end) {
+		ensureCapacity(size + 1);
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	void addAll(HitList hits) {
+		replace(size, size, hits);
+	}
+
+	/**
+	 * Replaces the hits from index 'from' (inclusive) to index 'to' (exclusive)
+	 * with the given hits.
+	 */
+	void replace(int from, int to, HitList hits) {
+		int newSize = size - (to - from) + hits.size;
+		ensureCapacity(newSize);
+		System.arraycopy(starts, to, starts, from + hits.size, size - to);
+		System.arraycopy(ends, to, ends, from + hits.size, size - to);
+		System.arraycopy(hits.starts, 0, starts, from, hits.size);
+		System.arraycopy(hits.ends, 0, ends, from, hits.size);
+		size = newSize;
+	}
+
+	/**
+	 * Adds the given delta to the offsets of all hits starting at the given index.
+	 */
+	void shift(int from, int delta) {
+		for (int i = from; i < size; i++) {
+			starts[i] += delta;
+			ends[i] += delta;
+		}
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= starts.length)
+			return;
+
+		int newLength = Math.max(capacity, starts.length * 2);
+		starts = Arrays.copyOf(starts, newLength);
+		ends = Arrays.copyOf(ends, newLength);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				buf.append(", ");
+			buf.append(starts[i]).append('-').append(ends[i]);
+		}
+		return buf.append(']').toString();
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+/**
+ * Read-only view of find hits (sorted, not overlapping).
+ *
+ * Hits are accessed by index, without an object per hit.
+ *
+ * @author Karl Tauber
+ */
+interface Hits
+{
+	int size();
+
+	/**
+	 * Returns the start offset (inclusive) of the hit at the given index.
+	 */
+	int start(int index);
+
+	/**
+	 * Returns the end offset (exclusive) of the hit at the given index.
+	 */
+	int end(int index);
+
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Returns the index of the first hit that ends after the given offset;
+	 * or size() if there is no such hit.
+	 */
+	default int firstEndingAfter(int offset) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (end(mid) <= offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the first hit that starts at or after the given offset;
+	 * or size() if there is no such hit.
+	 */
+	default int firstStartingAt(int offset) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (start(mid) < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.Arrays;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+
+/**
+ * Maintains the start offsets of all lines (paragraphs) of a text area.
+ *
+ * Updated from text deltas and answers offset to line and line to offset
+ * queries in O(log n) and O(1), without going through the text area model.
+ *
+ * Line starts are stored in a primitive gap buffer. Starts before the gap
+ * are absolute offsets, starts after the gap are relative to the end of
+ * the text. An edit moves the gap to the edited line, so that typing at
+ * the same location does not touch the rest of the lines.
+ *
+ * @author Karl Tauber
+ */
+class LineIndex
+{
+	private int[] starts = new int[64];
+	private int gapStart = 1;
+	private int gapEnd = starts.length;
+	private int length;
+
+	LineIndex() {
+		starts[0] = 0; // first line
+	}
+
+	private LineIndex(int[] starts, int length) {
+		this.starts = starts;
+		this.gapStart = starts.length;
+		this.gapEnd = starts.length;
+		this.length = length;
+	}
+
+	/**
+	 * Returns a copy of this index, which can be used in another thread.
+	 */
+	LineIndex snapshot() {
+		int lineCount = getLineCount();
+		int[] newStarts = new int[lineCount];
+		System.arraycopy(starts, 0, newStarts, 0, gapStart);
+		for (int i = gapStart; i < lineCount; i++)
+			newStarts[i] = getLineStart(i);
+		return new LineIndex(newStarts, length);
+	}
+
+	void textChanged(PlainTextChange change) {
+		int position = change.getPosition();
+		int removalEnd = change.getRemovalEnd();
+		String inserted = change.getInserted();
+		int oldLength = length;
+
+		// move gap behind the changed line
+		moveGap(offsetToLine(position, Bias.Forward) + 1);
+
+		// remove lines that start within the removed text
+		while (gapEnd < starts.length && starts[gapEnd] + oldLength <= removalEnd)
+			gapEnd++;
+
+		length = oldLength - (removalEnd - position) + inserted.length();
+
+		// insert lines that start within the inserted text
+		int newLineCount = 0;
+		for (int i = inserted.indexOf('\n'); i >= 0; i = inserted.indexOf('\n', i + 1))
+			newLineCount++;
+		if (newLineCount == 0)
+			return;
+
+		ensureGap(newLineCount);
+		for (int i = inserted.indexOf('\n'); i >= 0; i = inserted.indexOf('\n', i + 1))
+			starts[gapStart++] = position + i + 1;
+	}
+
+	int getTextLength() {
+		return length;
+	}
+
+	int getLineCount() {
+		return starts.length - (gapEnd - gapStart);
+	}
+
+	/**
+	 * Returns the start offset of the given line.
+	 */
+	int getLineStart(int line) {
+		return (line < gapStart)
+			? starts[line]
+			: starts[line + (gapEnd - gapStart)] + length;
+	}
+
+	/**
+	 * Returns the end offset of the given line, including the line separator.
+	 */
+	int getLineEnd(int line) {
+		return (line + 1 < getLineCount()) ? getLineStart(line + 1) : length;
+	}
+
+	/**
+	 * Returns the line for the given character offset.
+	 *
+	 * Same as {@code textArea.offsetToPosition(offset, bias).getMajor()}:
+	 * an offset at the beginning of a line belongs to that line if bias is
+	 * Forward, and to the previous line if bias is Backward.
+	 */
+	int offsetToLine(int offset, Bias bias) {
+		// binary search for last line that starts before (or at) offset
+		int low = 0;
+		int high = getLineCount() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			int start = getLineStart(mid);
+			if (start < offset || (start == offset && bias == Bias.Forward))
+				low = mid;
+			else
+				high = mid - 1;
+		}
+		return low;
+	}
+
+	private void moveGap(int line) {
+		while (gapStart > line) {
+			gapStart--;
+			gapEnd--;
+			starts[gapEnd] = starts[gapStart] - length;
+		}
+		while (gapStart < line) {
+			starts[gapStart] = starts[gapEnd] + length;
+			gapStart++;
+			gapEnd++;
+		}
+	}
+
+	private void ensureGap(int size) {
+		int gapSize = gapEnd - gapStart;
+		if (gapSize >= size)
+			return;
+
+		int tailLength = starts.length - gapEnd;
+		int newLength = Math.max(starts.length * 2, starts.length - gapSize + size + 64);
+		int[] newStarts = Arrays.copyOf(starts, newLength);
+		System.arraycopy(starts, gapEnd, newStarts, newLength - tailLength, tailLength);
+		starts = newStarts;
+		gapEnd = newLength - tailLength;
+	}
+}
@@ -33,8 +33,7 @@ import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
 import static org.fxmisc.wellbehaved.event.InputMap.*;
 
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.Callable;
 import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.WeakInvalidationListener;
@@ -51,16 +50,15 @@ import javafx.beans.value.ObservableValue;
 import javafx.scene.control.IndexRange;
 import javafx.scene.input.KeyEvent;
 import com.vladsch.flexmark.ast.Node;
-import com.vladsch.flexmark.parser.Parser;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.StyleClassedTextArea;
+import org.fxmisc.richtext.model.PlainTextChange;
 import org.fxmisc.undo.UndoManager;
 import org.fxmisc.wellbehaved.event.Nodes;
 import org.scrivo.markdownfx.controls.BottomSlidePane;
 import org.scrivo.markdownfx.editor.FindReplacePane.HitsChangeListener;
-import org.scrivo.markdownfx.editor.MarkdownSyntaxHighlighter.ExtraStyledRanges;
-import org.scrivo.markdownfx.options.MarkdownExtensions;
 import org.scrivo.markdownfx.options.Options;
+import org.scrivo.markdownfx.util.PulseScheduler;
 
 /**
  * Markdown editor pane.
@@ -71,16 +69,22 @@ import org.scrivo.markdownfx.options.Options;
  */
 public class MarkdownEditorPane
 {
+	private static final long PULSE_BUDGET = 4_000_000;		// nanoseconds
+
 	private final BottomSlidePane borderPane;
 	private final StyleClassedTextArea textArea;
 	private final ParagraphOverlayGraphicFactory overlayGraphicFactory;
 	private LineNumberGutterFactory lineNumberGutterFactory;
 	private WhitespaceOverlayFactory whitespaceOverlayFactory;
+	private final LineIndex lineIndex = new LineIndex();
 	private final SmartEdit smartEdit;
+	private final PulseScheduler pulseScheduler = new PulseScheduler(PULSE_BUDGET);
+	private final StyleApplier styleApplier;
+	private final OverviewRuler overviewRuler;
 
 	private final FindReplacePane findReplacePane;
 	private final HitsChangeListener findHitsChangeListener;
-	private Parser parser;
+	private final ParseService parseService;
 	private final InvalidationListener optionsListener;
 	private String lineSeparator = getLineSeparatorOrDefault();
 
@@ -90,11 +94,13 @@ public class MarkdownEditorPane
 		textArea.getStyleClass().add("markdown-editor");
 		textArea.getStylesheets().add("org/markdownwriterfx/editor/MarkdownEditor.css");
 
-		textArea.textProperty().addListener((observable, oldText, newText) -> {
-			textChanged(newText);
-		});
+		parseService = new ParseService(textArea::getText, this::markdownParsed);
+
+		// listen to text deltas; the full text is only built when needed
+		textArea.plainTextChanges().subscribe(this::textChanged);
 
 		smartEdit = new SmartEdit(this, textArea);
+		styleApplier = new StyleApplier(textArea, lineIndex, pulseScheduler);
 
 		Nodes.addInputMap(textArea, sequence(
 			consume(keyPressed(PLUS, SHORTCUT_DOWN),	this::increaseFontSize),
@@ -125,8 +131,18 @@ public class MarkdownEditorPane
 		updateShowWhitespace();
 
 		// find/replace
-		findReplacePane = new FindReplacePane(textArea);
-		findHitsChangeListener = this::findHitsChanged;
+		overviewRuler = new OverviewRuler(textArea, lineIndex);
+		findReplacePane = new FindReplacePane(textArea, overviewRuler);
+		findHitsChangeListener = new HitsChangeListener() {
+			@Override
+			public void hitsChanged() {
+				findHitsChanged();
+			}
+			@Override
+			public void activeHitChanged(int oldActiveHitIndex) {
+				styleApplier.setActiveHit(findReplacePane.getActiveHitIndex());
+			}
+		};
 		findReplacePane.addListener(findHitsChangeListener);
 		findReplacePane.visibleProperty().addListener((ov, oldVisible, newVisible) -> {
 			if (!newVisible)
@@ -146,8 +162,7 @@ public class MarkdownEditorPane
 				updateShowWhitespace();
 			else if (e == Options.markdownRendererProperty() || e == Options.markdownExtensionsProperty()) {
 				// re-process markdown if markdown extensions option changes
-				parser = null;
-				textChanged(textArea.getText());
+				parseService.parse();
 			}
 		};
 		WeakInvalidationListener weakOptionsListener = new WeakInvalidationListener(optionsListener);
@@ -168,6 +183,10 @@ public class MarkdownEditorPane
 		return borderPane;
 	}
 
+	StyleClassedTextArea getTextArea() {
+		return textArea;
+	}
+
 	public UndoManager getUndoManager() {
 		return textArea.getUndoManager();
 	}
@@ -195,6 +214,15 @@ public class MarkdownEditorPane
 		return getLineSeparatorOrDefault();
 	}
 
+	/**
+	 * Parses the current text now (synchronously) if the 'markdownText' and
+	 * 'markdownAST' properties are not yet up to date (they are usually
+	 * updated after parsing in background).
+	 */
+	public void parseNow() {
+		parseService.parseNow();
+	}
+
 	// 'markdown' property
 	public String getMarkdown() {
 		String markdown = textArea.getText();
@@ -241,46 +269,43 @@ public class MarkdownEditorPane
 	public void setPath(Path path) { this.path.set(path); }
 	public ObjectProperty<Path> pathProperty() { return path; }
 
+	LineIndex getLineIndex() {
+		return lineIndex;
+	}
+
 	Path getParentPath() {
 		Path path = getPath();
 		return (path != null) ? path.getParent() : null;
 	}
 
-	private void textChanged(String newText) {
-		if (borderPane.getBottom() != null) {
-			findReplacePane.removeListener(findHitsChangeListener);
-			findReplacePane.textChanged();
-			findReplacePane.addListener(findHitsChangeListener);
-		}
+	private void textChanged(PlainTextChange change) {
+		// keep line starts in sync first; used by all others
+		lineIndex.textChanged(change);
 
-		Node astRoot = parseMarkdown(newText);
-		applyHighlighting(astRoot);
+		// syntax styles no longer match the text
+		styleApplier.cancel();
 
-		markdownText.set(newText);
-		markdownAST.set(astRoot);
-	}
+		if (borderPane.getBottom() != null)
+			findReplacePane.textChanged(change);
 
-	private void findHitsChanged() {
-		applyHighlighting(markdownAST.get());
+		// parse in background; markdownParsed() is invoked for the newest text only
+		parseService.parse();
 	}
 
-	private Node parseMarkdown(String text) {
-		if (parser == null) {
-			parser = Parser.builder()
-				.extensions(MarkdownExtensions.getFlexmarkExtensions(Options.getMarkdownRenderer()))
-				.build();
-		}
-		return parser.parse(text);
-	}
+	private Callable<Runnable> markdownParsed(ASTCache.Entry parsed) {
+		markdownText.set(parsed.text);
+		markdownAST.set(parsed.astRoot);
 
-	private void applyHighlighting(Node astRoot) {
-		List<ExtraStyledRanges> extraStyledRanges = findReplacePane.hasHits()
-			? Arrays.asList(
-				new ExtraStyledRanges("hit", findReplacePane.getHits()),
-				new ExtraStyledRanges("hit-active", Arrays.asList(findReplacePane.getActiveHit())))
-			: null;
+		// compute syntax styles in background (or reuse cached styles);
+		// the line index matches the parsed text
+		LineIndex lineIndexSnapshot = lineIndex.snapshot();
+		return () -> MarkdownSyntaxHighlighter.highlight(parsed, lineIndexSnapshot, styleApplier);
+	}
 
-		MarkdownSyntaxHighlighter.highlight(textArea, astRoot, extraStyledRanges);
+	private void findHitsChanged() {
+		// find hits are a decoration layer; no need to re-highlight
+		styleApplier.setHits(findReplacePane.hasHits() ? findReplacePane.getHits() : null,
+			findReplacePane.getActiveHitIndex());
 	}
 
 	private void increaseFontSize(KeyEvent e) {
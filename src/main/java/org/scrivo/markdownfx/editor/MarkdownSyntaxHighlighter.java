@@ -27,13 +27,9 @@
 
 package org.scrivo.markdownfx.editor;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
-import javafx.application.Platform;
 import com.vladsch.flexmark.ast.*;
 import com.vladsch.flexmark.ext.abbreviation.Abbreviation;
 import com.vladsch.flexmark.ext.abbreviation.AbbreviationBlock;
@@ -47,17 +43,19 @@ import com.vladsch.flexmark.ext.gfm.tables.TableRow;
 import com.vladsch.flexmark.ext.gfm.tasklist.TaskListItem;
 import com.vladsch.flexmark.ext.wikilink.WikiLink;
 import com.vladsch.flexmark.util.sequence.BasedSequence;
-import org.fxmisc.richtext.StyleClassedTextArea;
-import org.fxmisc.richtext.model.Paragraph;
+import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 import org.fxmisc.richtext.model.TwoDimensional.Bias;
-import org.scrivo.markdownfx.util.Range;
 
 /**
  * Markdown syntax highlighter.
  *
  * Uses flexmark-java AST.
  *
+ * The styles are computed in a background thread, using a line index snapshot
+ * instead of the text area. Only applying the computed styles (by the style
+ * applier) is done on the JavaFX application thread.
+ *
  * @author Karl Tauber
  */
 class MarkdownSyntaxHighlighter
@@ -110,7 +108,6 @@ class MarkdownSyntaxHighlighter
 		abbr,
 	};
 
-	private static final HashMap<Long, Collection<String>> styleClassesCache = new HashMap<>();
 	private static final HashMap<Class<? extends Node>, StyleClass> node2style = new HashMap<>();
 	private static final HashMap<Class<? extends Node>, StyleClass> node2lineStyle = new HashMap<>();
 
@@ -155,24 +152,40 @@ class MarkdownSyntaxHighlighter
 		node2style.put(Abbreviation.class, StyleClass.abbr);
 	}
 
-	private final StyleClassedTextArea textArea;
-	private ArrayList<StyleRange> styleRanges;
-	private ArrayList<StyleRange> lineStyleRanges;
+	private final LineIndex lineIndex;
+	private StyleRanges styleRanges;
+	private StyleRanges lineStyleRanges;
 
-	static void highlight(StyleClassedTextArea textArea, Node astRoot, List<ExtraStyledRanges> extraStyledRanges) {
-		assert Platform.isFxApplicationThread();
+	/**
+	 * Computes the syntax styles of the AST of the given cache entry and returns
+	 * a runnable that applies them to the text area of the given style applier.
+	 * The styles are stored in the cache entry and reused if the same text
+	 * is highlighted again (e.g. after undo/redo).
+	 *
+	 * Does not access the text area and can be invoked in a background thread.
+	 * The returned runnable must be invoked on the JavaFX application thread.
+	 *
+	 * @param lineIndex line index snapshot of the parsed text
+	 */
+	static Runnable highlight(ASTCache.Entry parsed, LineIndex lineIndex, StyleApplier styleApplier) {
+		ASTCache.Styles styles = parsed.getStyles();
+		if (styles == null) {
+			styles = new MarkdownSyntaxHighlighter(lineIndex).highlight(parsed.astRoot);
+			ASTCache.putStyles(parsed, styles);
+		}
 
-		assert textArea.getText().length() == textArea.getLength();
-		new MarkdownSyntaxHighlighter(textArea).highlight(astRoot, extraStyledRanges);
+		// apply styles (visible paragraphs first; merged with find hits)
+		ASTCache.Styles styles2 = styles;
+		return () -> styleApplier.apply(styles2.spans, styles2.paragraphStyles);
 	}
 
-	private MarkdownSyntaxHighlighter(StyleClassedTextArea textArea) {
-		this.textArea = textArea;
+	private MarkdownSyntaxHighlighter(LineIndex lineIndex) {
+		this.lineIndex = lineIndex;
 	}
 
-	private void highlight(Node astRoot, List<ExtraStyledRanges> extraStyledRanges) {
-		styleRanges = new ArrayList<>();
-		lineStyleRanges = new ArrayList<>();
+	private ASTCache.Styles highlight(Node astRoot) {
+		styleRanges = new StyleRanges();
+		lineStyleRanges = new StyleRanges();
 
 		// visit all nodes
 		NodeVisitor visitor = new NodeVisitor(
@@ -203,106 +216,41 @@ class MarkdownSyntaxHighlighter
 		};
 		visitor.visit(astRoot);
 
-		// add extra styled ranges
-		if (extraStyledRanges != null) {
-			long extraStyleBits = 1L << StyleClass.values().length;
-			for (ExtraStyledRanges extraStyledRange : extraStyledRanges) {
-				for (Range extraRange : extraStyledRange.ranges) {
-					addStyledRange(styleRanges, extraRange.start, extraRange.end, extraStyleBits);
-				}
-				extraStyleBits <<= 1;
-			}
-
-			// need to clear cache
-			styleClassesCache.clear();
-		}
-
-		// set text styles
+		// build text styles
+		styleRanges.merge();
 		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
-		int textLength = textArea.getLength();
+		int textLength = lineIndex.getTextLength();
 		if (textLength > 0) {
 			int spanStart = 0;
-			for (StyleRange range : styleRanges) {
-				if (range.begin > spanStart)
-					spansBuilder.add(Collections.emptyList(), range.begin - spanStart);
-				spansBuilder.add(toStyleClasses(range.styleBits, extraStyledRanges), range.end - range.begin);
-				spanStart = range.end;
+			int rangeCount = styleRanges.size();
+			for (int i = 0; i < rangeCount; i++) {
+				int begin = styleRanges.begin(i);
+				int end = styleRanges.end(i);
+				if (begin > spanStart)
+					spansBuilder.add(Collections.emptyList(), begin - spanStart);
+				spansBuilder.add(StyleClassTable.get(styleRanges.styleBits(i)), end - begin);
+				spanStart = end;
 			}
 			if (spanStart < textLength)
 				spansBuilder.add(Collections.emptyList(), textLength - spanStart);
 		} else
 			spansBuilder.add(Collections.emptyList(), 0);
-		textArea.setStyleSpans(0, spansBuilder.create());
-
-		// set line styles
-		int start = 0;
-		for (StyleRange range : lineStyleRanges) {
-			if (range.begin > start)
-				setParagraphStyle(start, range.begin, Collections.emptyList());
-			setParagraphStyle(range.begin, range.end, toStyleClasses(range.styleBits, null));
-			start = range.end;
-		}
-		int lineCount = textArea.getParagraphs().size();
-		if (start < lineCount)
-			setParagraphStyle(start, lineCount, Collections.emptyList());
-	}
-
-	private void setParagraphStyle(int start, int end, Collection<String> ps) {
-		for (int i = start; i < end; i++) {
-			Paragraph<Collection<String>, Collection<String>> paragraph = textArea.getParagraph(i);
-			if (ps != paragraph.getParagraphStyle())
-				setParagraphStyle(paragraph, i, ps);
-		}
-	}
-
-	private void setParagraphStyle(Paragraph<?,?> paragraph, int paragraphIndex, Collection<String> paragraphStyle) {
-		if (paragraphStyleField != null) {
-			// because StyledTextArea.setParagraphStyle() is very very slow,
-			// especially if invoked many times, we (try to) go the "short way"
-			try {
-				paragraphStyleField.set(paragraph, paragraphStyle);
-				return;
-			} catch (Exception ex) {
-				// ignore
-			}
-		}
-
-		textArea.setParagraphStyle(paragraphIndex, paragraphStyle);
-	}
-
-	private static Field paragraphStyleField;
-	static {
-		try {
-			paragraphStyleField = Paragraph.class.getDeclaredField("paragraphStyle");
-			paragraphStyleField.setAccessible(true);
-		} catch (Exception e) {
-			// ignore
+		StyleSpans<Collection<String>> spans = spansBuilder.create();
+
+		// build line styles
+		lineStyleRanges.merge();
+		int lineCount = lineIndex.getLineCount();
+		ParagraphStyleRuns paragraphStyles = new ParagraphStyleRuns();
+		int lineRangeCount = lineStyleRanges.size();
+		for (int i = 0; i < lineRangeCount; i++) {
+			int begin = lineStyleRanges.begin(i);
+			int end = Math.min(lineStyleRanges.end(i), lineCount);
+			paragraphStyles.add(Collections.emptyList(), begin - paragraphStyles.getParagraphCount());
+			paragraphStyles.add(StyleClassTable.get(lineStyleRanges.styleBits(i)), end - begin);
 		}
-	}
-
-	private Collection<String> toStyleClasses(long bits, List<ExtraStyledRanges> extraStyledRanges) {
-		if (bits == 0)
-			return Collections.emptyList();
+		paragraphStyles.add(Collections.emptyList(), lineCount - paragraphStyles.getParagraphCount());
 
-		Collection<String> styleClasses = styleClassesCache.get(bits);
-		if (styleClasses != null)
-			return styleClasses;
-
-		styleClasses = new ArrayList<>(1);
-		for (StyleClass styleClass : StyleClass.values()) {
-			if ((bits & (1L << styleClass.ordinal())) != 0)
-				styleClasses.add(styleClass.name());
-		}
-		if (extraStyledRanges != null) {
-			long extraStyleBits = 1L << StyleClass.values().length;
-			for (ExtraStyledRanges extraStyledRange : extraStyledRanges) {
-				if ((bits & extraStyleBits) != 0)
-					styleClasses.add(extraStyledRange.styleClass);
-				extraStyleBits <<= 1;
-			}
-		}
-		styleClassesCache.put(bits, styleClasses);
-		return styleClasses;
+		return new ASTCache.Styles(spans, paragraphStyles);
 	}
 
 	private void visit(Heading node) {
@@ -340,129 +288,13 @@ class MarkdownSyntaxHighlighter
 		int start = sequence.getStartOffset();
 		int end = sequence.getEndOffset();
 
-		addStyledRange(styleRanges, start, end, styleClass);
+		styleRanges.add(start, end, 1L << styleClass.ordinal());
 	}
 
 	private void setLineStyleClass(Node node, StyleClass styleClass) {
-		int start = textArea.offsetToPosition(node.getStartOffset(), Bias.Backward).getMajor();
-		int end = textArea.offsetToPosition(node.getEndOffset(), Bias.Forward).getMajor() + 1;
+		int start = lineIndex.offsetToLine(node.getStartOffset(), Bias.Backward);
+		int end = lineIndex.offsetToLine(node.getEndOffset(), Bias.Forward) + 1;
 
-		addStyledRange(lineStyleRanges, start, end, styleClass);
-	}
-
-	/**
-	 * Adds a style range to styleRanges.
-	 *
-	 * Makes sure that the ranges are sorted by begin index
-	 * and that there are no overlapping ranges.
-	 * In case the added range overlaps, existing ranges are split.
-	 *
-	 * @param begin the beginning index, inclusive
-	 * @param end   the ending index, exclusive
-	 */
-	/*private*/ static void addStyledRange(ArrayList<StyleRange> styleRanges, int begin, int end, StyleClass styleClass) {
-		long styleBits = 1L << styleClass.ordinal();
-		addStyledRange(styleRanges, begin, end, styleBits);
-	}
-
-	private static void addStyledRange(ArrayList<StyleRange> styleRanges, int begin, int end, long styleBits) {
-		final int lastIndex = styleRanges.size() - 1;
-
-		// check whether list is empty
-		if (styleRanges.isEmpty()) {
-			styleRanges.add(new StyleRange(begin, end, styleBits));
-			return;
-		}
-
-		// check whether new range is after last range
-		final StyleRange lastRange = styleRanges.get(lastIndex);
-		if (begin >= lastRange.end) {
-			styleRanges.add(new StyleRange(begin, end, styleBits));
-			return;
-		}
-
-		// walk existing ranges from last to first
-		for (int i = lastIndex; i >= 0; i--) {
-			StyleRange range = styleRanges.get(i);
-			if (end <= range.begin) {
-				// new range is before existing range (no overlapping) --> nothing yet to do
-				continue;
-			}
-
-			if (begin >= range.end) {
-				// existing range is before new range (no overlapping)
-
-				if (begin < styleRanges.get(i+1).begin) {
-					// new range starts after this range (may overlap next range) --> add
-					int end2 = Math.min(end, styleRanges.get(i+1).begin);
-					styleRanges.add(i + 1, new StyleRange(begin, end2, styleBits));
-				}
-
-				break; // done
-			}
-
-			if (end > range.end) {
-				// new range ends after this range (may overlap next range) --> add
-				int end2 = (i == lastIndex) ? end : Math.min(end, styleRanges.get(i+1).begin);
-				if (end2 > range.end)
-					styleRanges.add(i + 1, new StyleRange(range.end, end2, styleBits));
-			}
-
-			if (begin < range.end && end > range.begin) {
-				// the new range overlaps the existing range somewhere
-
-				if (begin <= range.begin && end >= range.end) {
-					// new range completely overlaps existing range --> merge style bits
-					styleRanges.set(i, new StyleRange(range.begin, range.end, range.styleBits | styleBits));
-				} else if (begin <= range.begin && end < range.end) {
-					// new range overlaps at the begin with existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, end, range.styleBits | styleBits));
-					styleRanges.add(i + 1, new StyleRange(end, range.end, range.styleBits));
-				} else if (begin > range.begin && end >= range.end) {
-					// new range overlaps at the end with existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, begin, range.styleBits));
-					styleRanges.add(i + 1, new StyleRange(begin, range.end, range.styleBits | styleBits));
-				} else if (begin > range.begin && end < range.end) {
-					// new range is in existing range --> split range
-					styleRanges.set(i, new StyleRange(range.begin, begin, range.styleBits));
-					styleRanges.add(i + 1, new StyleRange(begin, end, range.styleBits | styleBits));
-					styleRanges.add(i + 2, new StyleRange(end, range.end, range.styleBits));
-				}
-			}
-		}
-
-		// check whether new range starts before first range
-		if (begin < styleRanges.get(0).begin) {
-			// add new range (part) before first range
-			int end2 = Math.min(end, styleRanges.get(0).begin);
-			styleRanges.add(0, new StyleRange(begin, end2, styleBits));
-		}
-	}
-
-	//---- class StyleRange ---------------------------------------------------
-
-	/*private*/ static class StyleRange
-	{
-		final int begin;		// inclusive
-		final int end;			// exclusive
-		final long styleBits;	// 1 << StyleClass.ordinal()
-
-		StyleRange(int begin, int end, long styleBits) {
-			this.begin = begin;
-			this.end = end;
-			this.styleBits = styleBits;
-		}
-	}
-
-	//---- class ExtraStyledRanges --------------------------------------------
-
-	static class ExtraStyledRanges {
-		final String styleClass;
-		final List<Range> ranges;
-
-		ExtraStyledRanges(String styleClass, List<Range> ranges) {
-			this.styleClass = styleClass;
-			this.ranges = ranges;
-		}
+		lineStyleRanges.add(start, end, 1L << styleClass.ordinal());
 	}
 }
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import static javafx.scene.input.KeyCode.ENTER;
+import static javafx.scene.input.KeyCode.ESCAPE;
+import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
+import static org.fxmisc.wellbehaved.event.InputMap.consume;
+import static org.fxmisc.wellbehaved.event.InputMap.sequence;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBase;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.control.Tooltip;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
+import org.fxmisc.richtext.StyleClassedTextArea;
+import org.fxmisc.wellbehaved.event.Nodes;
+import org.scrivo.markdownfx.Messages;
+import org.scrivo.markdownfx._MarkdownWriterFXApp;
+import org.scrivo.markdownfx.options.Options;
+import org.scrivo.markdownfx.util.FontAwesomeIconFactory;
+import org.scrivo.markdownfx.util.PrefsBooleanProperty;
+import org.scrivo.markdownfx.util.Utils;
+import org.tbee.javafx.scene.layout.fxml.MigPane;
+import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
+
+/**
+ * Find and replace in all open documents.
+ *
+ * Text snapshots of all documents are taken on the JavaFX application thread
+ * and searched in parallel on the common fork-join pool. The hits are shown
+ * grouped per document; activating a hit selects its document and the hit.
+ *
+ * Replace all computes the replacements of all documents in parallel and
+ * applies them as one (undoable) change per editor. Documents that have
+ * been changed in the meantime are skipped.
+ *
+ * A newer search or replace cancels the running one.
+ *
+ * @author Karl Tauber
+ */
+public class OpenFilesFindPane
+{
+	/**
+	 * An open document (e.g. an editor tab).
+	 */
+	public interface Document {
+		String getName();
+
+		/**
+		 * Returns the editor of the document; or null if not yet created.
+		 */
+		MarkdownEditorPane getEditor();
+
+		/**
+		 * Returns the editor of the document; creates it if necessary.
+		 */
+		MarkdownEditorPane loadEditor();
+
+		/**
+		 * Returns a reader for the text of the document (e.g. from its file),
+		 * which does not create the editor. Only invoked (on the JavaFX application
+		 * thread) if the editor has not been created yet. The reader is invoked
+		 * in a background thread and returns null if the text is not available.
+		 */
+		Supplier<String> textReader();
+
+		/**
+		 * Makes the document visible (e.g. selects its tab).
+		 * Returns false if the document is no longer open.
+		 */
+		boolean activate();
+	}
+
+	private static PrefsBooleanProperty matchCase = new PrefsBooleanProperty(
+			_MarkdownWriterFXApp.getState(), "findInOpenFilesMatchCase", false);
+	private static PrefsBooleanProperty regex = new PrefsBooleanProperty(
+			_MarkdownWriterFXApp.getState(), "findInOpenFilesRegex", false);
+
+	private final Supplier<List<Document>> documents;
+	private final AtomicInteger generation = new AtomicInteger();
+
+	public OpenFilesFindPane(Supplier<List<Document>> documents) {
+		this.documents = documents;
+	}
+
+	// 'visible' property
+	private final SimpleBooleanProperty visible = new SimpleBooleanProperty();
+	public ReadOnlyBooleanProperty visibleProperty() { return visible; }
+
+	public Node getNode() {
+		if (pane != null)
+			return pane;
+
+		createComponents();
+
+		pane.getStyleClass().addAll("find-replace", "find-in-open-files");
+		matchCaseButton.getStyleClass().add("flat-button");
+		regexButton.getStyleClass().add("flat-button");
+		closeButton.getStyleClass().addAll("close", "flat-button");
+		infoLabel.getStyleClass().add("info");
+
+		closeButton.setGraphic(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.CLOSE));
+
+		matchCaseButton.setTooltip(new Tooltip(Messages.get("FindReplacePane.matchCaseButton.tooltip")));
+		regexButton.setTooltip(new Tooltip(Messages.get("FindReplacePane.regexButton.tooltip")));
+		closeButton.setTooltip(new Tooltip(Messages.get("FindReplacePane.closeButton.tooltip")));
+
+		Nodes.addInputMap(findField, sequence(
+				consume(keyPressed(ENTER),	e -> findAll()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		Nodes.addInputMap(replaceField, sequence(
+				consume(keyPressed(ENTER),	e -> replaceAll()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		Nodes.addInputMap(resultTree, sequence(
+				consume(keyPressed(ENTER),	e -> selectHit(resultTree.getSelectionModel().getSelectedItem())),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		resultTree.setOnMouseClicked(e -> {
+			if (e.getClickCount() == 2)
+				selectHit(resultTree.getSelectionModel().getSelectedItem());
+		});
+		replaceAllButton.setOnAction(e -> replaceAll());
+		closeButton.setOnAction(e -> hide());
+
+		matchCaseButton.setOnAction(e -> {
+			findAll();
+			matchCase.set(matchCaseButton.isSelected());
+		});
+		regexButton.setOnAction(e -> {
+			findAll();
+			regex.set(regexButton.isSelected());
+		});
+		matchCaseButton.setSelected(matchCase.get());
+		regexButton.setSelected(regex.get());
+
+		resultTree.setShowRoot(false);
+
+		return pane;
+	}
+
+	public void show() {
+		visible.set(true);
+
+		findField.requestFocus();
+		findField.selectAll();
+
+		findAll();
+	}
+
+	private void hide() {
+		visible.set(false);
+		generation.incrementAndGet(); // cancel running search or replace
+		resultTree.setRoot(null);
+	}
+
+	private FindService.Query createQuery() {
+		try {
+			return FindService.createQuery(findField.getText(),
+				matchCaseButton.isSelected(), regexButton.isSelected());
+		} catch (PatternSyntaxException ex) {
+			infoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexError"));
+			return null;
+		}
+	}
+
+	private void findAll() {
+		infoLabel.setText(null);
+		resultTree.setRoot(null);
+
+		int runGeneration = generation.incrementAndGet();
+		if (findField.getText().isEmpty())
+			return;
+
+		FindService.Query query = createQuery();
+		if (query == null)
+			return;
+
+		// take text snapshots of editors on the JavaFX application thread
+		List<Document> documents = this.documents.get();
+		List<String> names = new ArrayList<>(documents.size());
+		List<Supplier<String>> snapshots = new ArrayList<>(documents.size());
+		for (Document document : documents) {
+			names.add(document.getName());
+			snapshots.add(snapshot(document));
+		}
+
+		// read files of not yet opened documents and search documents in parallel
+		int maxHits = Options.getFindMaxHits();
+		BooleanSupplier canceled = () -> generation.get() != runGeneration;
+		ForkJoinPool.commonPool().execute(() -> {
+			List<DocumentHits> results = IntStream.range(0, documents.size()).parallel()
+				.mapToObj(i -> {
+					String text = !canceled.getAsBoolean() ? snapshots.get(i).get() : null;
+					// find one more hit to know whether there are more hits
+					HitList hits = (text != null) ? FindService.findAll(query, text, maxHits + 1, canceled) : new HitList(0);
+					boolean capped = (hits != null && hits.size() > maxHits);
+					if (capped)
+						hits.replace(maxHits, hits.size(), new HitList(0));
+					return new DocumentHits(documents.get(i), names.get(i), text, hits, capped);
+				})
+				.collect(Collectors.toList());
+
+			Platform.runLater(() -> {
+				// drop results of canceled search
+				if (!canceled.getAsBoolean())
+					hitsFound(results);
+			});
+		});
+	}
+
+	/**
+	 * Returns a supplier for the text of the given document, which can be
+	 * invoked in a background thread. Takes a text snapshot of an existing editor,
+	 * but does not create the editor (or read the file) now, which would be
+	 * expensive if many documents have not been opened yet.
+	 */
+	private static Supplier<String> snapshot(Document document) {
+		MarkdownEditorPane editor = document.getEditor();
+		if (editor == null)
+			return document.textReader();
+
+		String text = editor.getTextArea().getText();
+		return () -> text;
+	}
+
+	private void hitsFound(List<DocumentHits> results) {
+		TreeItem<Object> root = new TreeItem<>();
+		int hitCount = 0;
+		int documentCount = 0;
+		boolean capped = false;
+		boolean timedOut = false;
+		for (DocumentHits result : results) {
+			if (result.hits == null) {
+				timedOut = true;
+				continue;
+			}
+			if (result.hits.isEmpty())
+				continue;
+
+			List<TreeItem<Object>> hitItems = new ArrayList<>(result.hits.size());
+			for (int i = 0; i < result.hits.size(); i++)
+				hitItems.add(new TreeItem<>(new HitEntry(result, i)));
+
+			TreeItem<Object> documentItem = new TreeItem<>(result);
+			documentItem.getChildren().setAll(hitItems);
+			documentItem.setExpanded(true);
+			root.getChildren().add(documentItem);
+
+			hitCount += result.hits.size();
+			documentCount++;
+			capped |= result.capped;
+		}
+		resultTree.setRoot(root);
+
+		infoLabel.setText(timedOut
+			? Messages.get("FindReplacePane.infoLabel.regexTimeout")
+			: Messages.get(capped ? "OpenFilesFindPane.infoLabel.moreHitCount" : "OpenFilesFindPane.infoLabel.hitCount",
+				hitCount, documentCount));
+	}
+
+	private void selectHit(TreeItem<Object> item) {
+		if (item == null || !(item.getValue() instanceof HitEntry))
+			return;
+
+		HitEntry entry = (HitEntry) item.getValue();
+		DocumentHits result = entry.result;
+		if (!result.document.activate())
+			return;
+
+		StyleClassedTextArea textArea = result.document.loadEditor().getTextArea();
+		int start = result.hits.start(entry.index);
+		int end = result.hits.end(entry.index);
+
+		// search again if the document has been changed since searching
+		if (end > textArea.getLength() ||
+			!textArea.getText(start, end).equals(result.text.substring(start, end)))
+		{
+			findAll();
+			return;
+		}
+
+		textArea.selectRange(start, end);
+	}
+
+	private void replaceAll() {
+		Utils.error(replaceField, false);
+		infoLabel.setText(null);
+
+		int runGeneration = generation.incrementAndGet();
+		if (findField.getText().isEmpty())
+			return;
+
+		FindService.Query query = createQuery();
+		if (query == null)
+			return;
+
+		// take text snapshots of editors on the JavaFX application thread
+		List<Document> documents = this.documents.get();
+		List<Supplier<String>> snapshots = new ArrayList<>(documents.size());
+		for (Document document : documents)
+			snapshots.add(snapshot(document));
+
+		// read files of not yet opened documents and compute replacements in parallel
+		String replace = replaceField.getText();
+		BooleanSupplier canceled = () -> generation.get() != runGeneration;
+		infoLabel.setText(Messages.get("OpenFilesFindPane.infoLabel.replacing"));
+		ForkJoinPool.commonPool().execute(() -> {
+			String[] texts = new String[documents.size()];
+			List<FindService.Replacement> replacements = IntStream.range(0, documents.size()).parallel()
+				.mapToObj(i -> {
+					String text = texts[i] = !canceled.getAsBoolean() ? snapshots.get(i).get() : null;
+					return (text != null)
+						? FindService.replaceAll(query, text, replace, canceled, progress -> {})
+						: null;
+				})
+				.collect(Collectors.toList());
+
+			Platform.runLater(() -> {
+				// drop results of canceled replace
+				if (!canceled.getAsBoolean())
+					replaced(documents, texts, replacements);
+			});
+		});
+	}
+
+	private void replaced(List<Document> documents, String[] texts, List<FindService.Replacement> replacements) {
+		infoLabel.setText(null);
+
+		// check for errors first (same for all documents); replace nothing on errors
+		for (FindService.Replacement replacement : replacements) {
+			if (replacement == null)
+				continue; // no text
+			if (replacement.timedOut) {
+				infoLabel.setText(Messages.get("FindReplacePane.infoLabel.regexTimeout"));
+				return;
+			}
+			if (replacement.error != null) {
+				Utils.error(replaceField, true);
+				infoLabel.setText(replacement.error);
+				return;
+			}
+		}
+
+		// apply one change per editor
+		int replacedCount = 0;
+		for (int i = 0; i < documents.size(); i++) {
+			FindService.Replacement replacement = replacements.get(i);
+			if (replacement == null || replacement.text == null)
+				continue; // no text or no hits
+
+			// skip documents that have been changed in the meantime
+			// (creates the editor of documents that were not yet opened)
+			StyleClassedTextArea textArea = documents.get(i).loadEditor().getTextArea();
+			if (!textArea.getText().equals(texts[i]))
+				continue;
+
+			textArea.replaceText(replacement.start, replacement.end, replacement.text);
+			replacedCount++;
+		}
+
+		findAll();
+		infoLabel.setText(Messages.get("OpenFilesFindPane.infoLabel.replaced", replacedCount));
+	}
+
+	private void createComponents() {
+		findField = new TextField();
+		findField.setPromptText(Messages.get("OpenFilesFindPane.findField.promptText"));
+		replaceField = new TextField();
+		replaceField.setPromptText(Messages.get("FindReplacePane.replaceField.promptText"));
+
+		matchCaseButton = new ToggleButton("Aa");
+		regexButton = new ToggleButton(".*");
+		closeButton = new Button();
+		replaceAllButton = new Button(Messages.get("OpenFilesFindPane.replaceAllButton.text"));
+		for (ButtonBase button : new ButtonBase[] { matchCaseButton, regexButton, closeButton, replaceAllButton })
+			button.setFocusTraversable(false);
+
+		infoLabel = new Label();
+		resultTree = new TreeView<>();
+
+		// find row, replace row and result tree
+		pane = new MigPane();
+		pane.setLayout("insets 0,hidemode 3");
+		pane.setCols("[fill][pref:n,fill]1px[pref:n,fill][grow,shrinkprio 200,fill][fill]");
+		pane.setRows("[fill]rel[fill]rel[fill]");
+		pane.add(findField, "cell 0 0,width 200:200:200");
+		pane.add(matchCaseButton, "cell 1 0");
+		pane.add(regexButton, "cell 2 0");
+		pane.add(infoLabel, "cell 3 0");
+		pane.add(closeButton, "cell 4 0");
+		pane.add(replaceField, "cell 0 1,width 200:200:200");
+		pane.add(replaceAllButton, "cell 1 1 3 1,alignx left,growx 0");
+		pane.add(resultTree, "cell 0 2 5 1,height 200:200:200");
+	}
+
+	private MigPane pane;
+	private TextField findField;
+	private ToggleButton matchCaseButton;
+	private ToggleButton regexButton;
+	private Label infoLabel;
+	private Button closeButton;
+	private TextField replaceField;
+	private Button replaceAllButton;
+	private TreeView<Object> resultTree;
+
+	//---- class DocumentHits -------------------------------------------------
+
+	/**
+	 * Hits of a document (text snapshot). Computes the labels of the hits
+	 * (line number and line text) in the background thread.
+	 */
+	private static class DocumentHits
+	{
+		private static final int MAX_LABEL_LENGTH = 200;
+
+		final Document document;
+		final String name;
+		final String text;
+		final HitList hits; // null if matching was aborted
+		final boolean capped; // whether there are more hits
+		final String[] labels;
+
+		DocumentHits(Document document, String name, String text, HitList hits, boolean capped) {
+			this.document = document;
+			this.name = name;
+			this.text = text;
+			this.hits = hits;
+			this.capped = capped;
+			this.labels = (hits != null) ? buildLabels(text, hits) : null;
+		}
+
+		private static String[] buildLabels(String text, HitList hits) {
+			String[] labels = new String[hits.size()];
+			int line = 0;
+			int lineStart = 0;
+			for (int i = 0; i < labels.length; i++) {
+				// count lines up to hit (hits are sorted)
+				int hitStart = hits.start(i);
+				for (int nl; (nl = text.indexOf('\n', lineStart)) >= 0 && nl < hitStart; ) {
+					lineStart = nl + 1;
+					line++;
+				}
+
+				int lineEnd = text.indexOf('\n', lineStart);
+				if (lineEnd < 0)
+					lineEnd = text.length();
+				String lineText = text.substring(lineStart, Math.min(lineEnd, lineStart + MAX_LABEL_LENGTH)).trim();
+				labels[i] = (line + 1) + ": " + lineText;
+			}
+			return labels;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + hits.size() + (capped ? "+" : "") + ")";
+		}
+	}
+
+	//---- class HitEntry -----------------------------------------------------
+
+	private static class HitEntry
+	{
+		final DocumentHits result;
+		final int index;
+
+		HitEntry(DocumentHits result, int index) {
+			this.result = result;
+			this.index = index;
+		}
+
+		@Override
+		public String toString() {
+			return result.labels[index];
+		}
+	}
+}
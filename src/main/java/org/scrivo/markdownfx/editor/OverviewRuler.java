@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.layout.Background;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Paint;
+import org.fxmisc.richtext.StyleClassedTextArea;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+import org.scrivo.markdownfx.util.Utils;
+
+/**
+ * Overview ruler that shows markers (e.g. find hits) of the whole document
+ * in the track of the vertical scroll bar of the text area.
+ *
+ * Markers are organized in layers. Each layer has its own color, which is
+ * specified in CSS as background color of the layer style class
+ * (e.g. '.overview-ruler > .hit-marker { -fx-background-color: ... }').
+ *
+ * The markers are drawn on a canvas, one pixel row per bucket of lines,
+ * where rows with more markers are drawn more opaque. Counting the markers
+ * per row is a single pass over the (sorted) marker offsets.
+ * The canvas is only redrawn (in the next layout pass) if markers
+ * or the height change.
+ *
+ * @author Karl Tauber
+ */
+class OverviewRuler
+	extends Region
+{
+	private static final double MIN_ALPHA = 0.5;
+	private static final Hits NO_MARKERS = new HitList(0);
+
+	private final StyleClassedTextArea textArea;
+	private final LineIndex lineIndex;
+	private final Canvas canvas = new Canvas();
+	private final List<Layer> layers = new ArrayList<>();
+	private boolean attached;
+	private boolean dirty;
+
+	OverviewRuler(StyleClassedTextArea textArea, LineIndex lineIndex) {
+		this.textArea = textArea;
+		this.lineIndex = lineIndex;
+
+		getStyleClass().add("overview-ruler");
+		setMouseTransparent(true);
+		getChildren().add(canvas);
+	}
+
+	/**
+	 * Adds a marker layer. Layers added later are drawn on top.
+	 *
+	 * @param styleClass style class that specifies the marker color
+	 */
+	Layer addLayer(String styleClass) {
+		Layer layer = new Layer(styleClass);
+		layers.add(layer);
+		getChildren().add(layer.styleNode);
+		return layer;
+	}
+
+	private void markersChanged() {
+		// add to scroll bar track on demand (scroll bar is created by the skin)
+		if (!attached && !attach())
+			return;
+
+		dirty = true;
+		requestLayout();
+	}
+
+	private boolean attach() {
+		ScrollBar vScrollBar = Utils.findVScrollBar(textArea.getParent());
+		if (vScrollBar == null)
+			return false;
+
+		Node track = vScrollBar.lookup(".track");
+		if (!(track instanceof Pane))
+			return false;
+
+		((Pane)track).getChildren().add(this);
+		attached = true;
+		return true;
+	}
+
+	@Override
+	protected double computePrefWidth(double height) {
+		return 0;
+	}
+
+	@Override
+	protected double computePrefHeight(double width) {
+		return 0;
+	}
+
+	@Override
+	protected void layoutChildren() {
+		double width = getWidth();
+		double height = getHeight();
+		if (canvas.getWidth() != width || canvas.getHeight() != height) {
+			canvas.setWidth(width);
+			canvas.setHeight(height);
+			dirty = true;
+		}
+
+		if (dirty) {
+			dirty = false;
+			redraw();
+		}
+	}
+
+	private void redraw() {
+		GraphicsContext gc = canvas.getGraphicsContext2D();
+		double width = canvas.getWidth();
+		int height = (int) canvas.getHeight();
+		gc.clearRect(0, 0, width, canvas.getHeight());
+
+		int lineCount = lineIndex.getLineCount();
+		if (height <= 0 || lineCount <= 0)
+			return;
+
+		int[] counts = new int[height];
+		for (Layer layer : layers) {
+			Paint fill = layer.fill();
+			if (layer.markers.isEmpty() || fill == null)
+				continue;
+
+			int maxCount = countMarkers(layer.markers, lineCount, counts);
+
+			// draw rows with markers; denser rows are more opaque
+			gc.setFill(fill);
+			for (int y = 0; y < height; y++) {
+				if (counts[y] == 0)
+					continue;
+
+				gc.setGlobalAlpha(MIN_ALPHA + (1 - MIN_ALPHA) * counts[y] / maxCount);
+				gc.fillRect(0, y, width, 1);
+			}
+		}
+		gc.setGlobalAlpha(1);
+	}
+
+	/**
+	 * Counts the markers per pixel row in one pass over the given (sorted) markers.
+	 * Returns the maximum count.
+	 */
+	private int countMarkers(Hits markers, int lineCount, int[] counts) {
+		Arrays.fill(counts, 0);
+
+		int height = counts.length;
+		int textLength = lineIndex.getTextLength();
+		int maxCount = 0;
+		int y = 0;
+		int rowEnd = -1; // offset where the next row starts
+		int markerCount = markers.size();
+		for (int i = 0; i < markerCount; i++) {
+			int offset = markers.start(i);
+			if (offset > textLength)
+				break;
+
+			if (offset >= rowEnd) {
+				// compute row of marker and first line of next row
+				int line = lineIndex.offsetToLine(offset, Bias.Forward);
+				y = (int) ((long) line * height / lineCount);
+				int nextRowLine = (int) (((long) (y + 1) * lineCount + height - 1) / height);
+				rowEnd = (nextRowLine < lineCount) ? lineIndex.getLineStart(nextRowLine) : Integer.MAX_VALUE;
+			}
+
+			if (++counts[y] > maxCount)
+				maxCount = counts[y];
+		}
+		return maxCount;
+	}
+
+	//---- class Layer --------------------------------------------------------
+
+	class Layer
+	{
+		// not visible; only used to get the marker color from CSS
+		private final Region styleNode = new Region();
+		private Hits markers = NO_MARKERS;
+
+		private Layer(String styleClass) {
+			styleNode.getStyleClass().add(styleClass);
+			styleNode.setManaged(false);
+			styleNode.setVisible(false);
+		}
+
+		/**
+		 * Sets the markers (sorted) of this layer. Only the start offsets are used.
+		 * Must be also invoked if the given markers were changed in place.
+		 */
+		void setMarkers(Hits markers) {
+			this.markers = (markers != null) ? markers : NO_MARKERS;
+			markersChanged();
+		}
+
+		private Paint fill() {
+			Background background = styleNode.getBackground();
+			return (background != null && !background.getFills().isEmpty())
+				? background.getFills().get(0).getFill()
+				: null;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Run-length encoded paragraph styles.
+ *
+ * Consecutive paragraphs with the same (interned) style are stored as one run,
+ * so that most documents need only a few runs, independent of the line count.
+ *
+ * @author Karl Tauber
+ */
+class ParagraphStyleRuns
+{
+	private int[] ends = new int[16];
+	private final ArrayList<Collection<String>> styles = new ArrayList<>();
+	private int paragraphCount;
+
+	/**
+	 * Appends the given style for the given number of paragraphs.
+	 * Merged with the last run if the style is the same.
+	 */
+	void add(Collection<String> style, int count) {
+		if (count <= 0)
+			return;
+
+		paragraphCount += count;
+
+		int runCount = styles.size();
+		if (runCount > 0 && styles.get(runCount - 1) == style) {
+			ends[runCount - 1] = paragraphCount;
+			return;
+		}
+
+		if (runCount == ends.length)
+			ends = Arrays.copyOf(ends, runCount * 2);
+		ends[runCount] = paragraphCount;
+		styles.add(style);
+	}
+
+	int getParagraphCount() {
+		return paragraphCount;
+	}
+
+	int getRunCount() {
+		return styles.size();
+	}
+
+	/**
+	 * Returns the ending paragraph index (exclusive) of the given run.
+	 */
+	int getRunEnd(int run) {
+		return ends[run];
+	}
+
+	Collection<String> getRunStyle(int run) {
+		return styles.get(run);
+	}
+
+	/**
+	 * Returns the index of the run that contains the given paragraph.
+	 */
+	int runIndexOf(int paragraph) {
+		int index = Arrays.binarySearch(ends, 0, styles.size(), paragraph);
+		return (index >= 0) ? index + 1 : -index - 1;
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import com.vladsch.flexmark.ast.BlockQuote;
+import com.vladsch.flexmark.ast.BulletList;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.ast.Heading;
+import com.vladsch.flexmark.ast.HtmlBlock;
+import com.vladsch.flexmark.ast.IndentedCodeBlock;
+import com.vladsch.flexmark.ast.Node;
+import com.vladsch.flexmark.ast.OrderedList;
+import com.vladsch.flexmark.ast.Paragraph;
+import com.vladsch.flexmark.ast.ThematicBreak;
+import com.vladsch.flexmark.ext.aside.AsideBlock;
+import com.vladsch.flexmark.ext.gfm.tables.TableBlock;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.sequence.BasedSequence;
+import com.vladsch.flexmark.util.sequence.CharSubSequence;
+
+/**
+ * Parallel block-level markdown parser.
+ *
+ * Splits large documents at stable top-level block boundaries (a blank line
+ * followed by a line that starts in column zero) into chunks, parses the
+ * chunks in parallel on the common fork-join pool and joins their top-level
+ * blocks into one document. Each chunk is parsed as a sub-sequence of the
+ * whole text, so all nodes have the same offsets as in a full parse.
+ *
+ * Every parse creates a new AST. Published ASTs are never modified, because
+ * they are shared with listeners, the preview, the syntax highlighter and the
+ * AST cache. flexmark nodes can neither belong to two trees nor be moved to
+ * other offsets without modifying them, so unchanged blocks are parsed again
+ * (in parallel) instead of being reused from the previous AST.
+ *
+ * Note that this is not incremental parsing: each edit parses the whole
+ * document, so the cost per keystroke still grows with the document size
+ * (divided by the number of processors), not with the size of the edited block.
+ * The AST cache avoids parsing only if exactly the same text is parsed again.
+ *
+ * A single full parse is done for small documents, for documents that contain
+ * blocks that affect the whole document (e.g. link reference definitions) and
+ * if adjacent chunks would have been parsed differently as a whole (e.g. lists
+ * that would be merged or a fenced code block that is not closed).
+ *
+ * All published ASTs (of full and chunked parses) are stored in the ASTCache
+ * and reused if the same text is parsed again (e.g. after undo/redo or revert).
+ * Because published ASTs are never modified, cached ASTs can be handed out
+ * again as they are.
+ *
+ * @author Karl Tauber
+ */
+class ParallelParser
+{
+	private static final int MIN_CHUNK_SIZE = 16 * 1024; // characters
+
+	private static final Class<?>[] SELF_CONTAINED_BLOCKS = {
+		Paragraph.class,
+		Heading.class,
+		BulletList.class,
+		OrderedList.class,
+		BlockQuote.class,
+		FencedCodeBlock.class,
+		IndentedCodeBlock.class,
+		ThematicBreak.class,
+		HtmlBlock.class,
+		TableBlock.class,
+		AsideBlock.class,
+	};
+
+	// whether the last parsed text contained document-scoped blocks
+	private volatile boolean hadDocumentScopedBlocks;
+
+	/**
+	 * Parses the given text. Does not modify previously returned ASTs.
+	 * May be invoked in a background thread.
+	 */
+	Result parse(Parser parser, String text) {
+		// already parsed (e.g. after undo/redo or revert)?
+		long hash = ASTCache.hash(text);
+		ASTCache.Entry entry = ASTCache.get(parser, text, hash);
+		if (entry != null)
+			return new Result(entry, true);
+
+		Node astRoot = !hadDocumentScopedBlocks ? parseChunks(parser, text) : null;
+		if (astRoot != null)
+			return new Result(new ASTCache.Entry(parser, text, hash, astRoot, false), false);
+
+		astRoot = parser.parse(text);
+		boolean hasDocumentScopedBlocks = containsDocumentScopedBlocks(astRoot);
+		hadDocumentScopedBlocks = hasDocumentScopedBlocks;
+		return new Result(new ASTCache.Entry(parser, text, hash, astRoot, hasDocumentScopedBlocks), false);
+	}
+
+	/**
+	 * Returns the cache entry (text and AST) of the given result and stores it
+	 * in the cache. Invoked when the result is published (outdated results
+	 * are not cached).
+	 */
+	ASTCache.Entry apply(Result result) {
+		if (!result.cached)
+			ASTCache.put(result.entry);
+		return result.entry;
+	}
+
+	/**
+	 * Parses the given text in chunks (in parallel).
+	 * Returns null if the text is too small or a full parse is necessary.
+	 */
+	private static Node parseChunks(Parser parser, String text) {
+		List<int[]> chunks = splitIntoChunks(text);
+		if (chunks.size() < 2)
+			return null;
+
+		BasedSequence base = CharSubSequence.of(text);
+		List<Node> chunkRoots = chunks.parallelStream()
+			.map(chunk -> parser.parse(base.subSequence(chunk[0], chunk[1])))
+			.collect(Collectors.toList());
+
+		// check whether chunks would have been parsed the same way as a whole
+		for (int i = 0; i < chunkRoots.size(); i++) {
+			Node chunkRoot = chunkRoots.get(i);
+			if (chunkRoot.getFirstChild() == null || containsDocumentScopedBlocks(chunkRoot))
+				return null;
+
+			if (i + 1 < chunkRoots.size()) {
+				Node last = chunkRoot.getLastChild();
+				Node next = chunkRoots.get(i + 1).getFirstChild();
+				if (isList(last) && next != null && isList(next))
+					return null; // lists would be merged
+				if (last.getEndOffset() > lineStart(text, chunks.get(i)[1] - 1))
+					return null; // last block is not closed (e.g. fenced code without closing fence)
+			}
+		}
+
+		// join top-level blocks (chunk roots are not published, so moving is allowed)
+		Node astRoot = chunkRoots.get(0);
+		astRoot.setChars(base);
+		for (int i = 1; i < chunkRoots.size(); i++) {
+			for (Node block = chunkRoots.get(i).getFirstChild(); block != null; ) {
+				Node next = block.getNext();
+				block.unlink();
+				astRoot.appendChild(block);
+				block = next;
+			}
+		}
+		return astRoot;
+	}
+
+	/**
+	 * Splits the given text at stable block boundaries into chunks
+	 * of at least MIN_CHUNK_SIZE characters. Returns {start, end} pairs.
+	 */
+	private static List<int[]> splitIntoChunks(String text) {
+		List<int[]> chunks = new ArrayList<>();
+		int length = text.length();
+		int chunkStart = 0;
+		while (length - chunkStart >= 2 * MIN_CHUNK_SIZE) {
+			int boundary = findStableBoundary(text, chunkStart + MIN_CHUNK_SIZE, length - MIN_CHUNK_SIZE);
+			if (boundary < 0)
+				break;
+
+			chunks.add(new int[] { chunkStart, boundary });
+			chunkStart = boundary;
+		}
+		chunks.add(new int[] { chunkStart, length });
+		return chunks;
+	}
+
+	/**
+	 * Returns the first stable block boundary in the given range; or -1.
+	 */
+	private static int findStableBoundary(String text, int from, int to) {
+		for (int lineEnd = text.indexOf('\n', from); lineEnd >= 0 && lineEnd < to; lineEnd = text.indexOf('\n', lineEnd + 1)) {
+			if (isStableBoundary(text, lineEnd + 1))
+				return lineEnd + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether a top-level block that starts at the given offset
+	 * can not be affected by preceding blocks.
+	 * This is the case if the line starts with a non-whitespace character
+	 * and the previous line is blank.
+	 */
+	private static boolean isStableBoundary(String text, int offset) {
+		if (offset <= 0 || offset >= text.length())
+			return false;
+		if (text.charAt(offset - 1) != '\n' || Character.isWhitespace(text.charAt(offset)))
+			return false;
+
+		// previous line must be blank
+		int blankLineStart = lineStart(text, offset - 1);
+		if (blankLineStart == 0)
+			return false;
+		for (int i = blankLineStart; i < offset - 1; i++) {
+			if (!Character.isWhitespace(text.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the start offset of the line that contains the given offset.
+	 */
+	private static int lineStart(String text, int offset) {
+		return text.lastIndexOf('\n', offset - 1) + 1;
+	}
+
+	private static boolean isList(Node node) {
+		return node instanceof BulletList || node instanceof OrderedList;
+	}
+
+	/**
+	 * Blocks like link reference definitions or abbreviations affect
+	 * the whole document and prevent parsing in chunks.
+	 */
+	private static boolean containsDocumentScopedBlocks(Node astRoot) {
+		for (Node block = astRoot.getFirstChild(); block != null; block = block.getNext()) {
+			if (!isSelfContained(block))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isSelfContained(Node block) {
+		Class<? extends Node> blockClass = block.getClass();
+		for (Class<?> cls : SELF_CONTAINED_BLOCKS) {
+			if (cls == blockClass)
+				return true;
+		}
+		return false;
+	}
+
+	//---- class Result -------------------------------------------------------
+
+	static class Result
+	{
+		final ASTCache.Entry entry;
+		final boolean cached;
+
+		Result(ASTCache.Entry entry, boolean cached) {
+			this.entry = entry;
+			this.cached = cached;
+		}
+	}
+}
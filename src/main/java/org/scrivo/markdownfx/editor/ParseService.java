@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+import com.vladsch.flexmark.parser.Parser;
+import org.scrivo.markdownfx.options.MarkdownExtensions;
+import org.scrivo.markdownfx.options.Options;
+import org.scrivo.markdownfx.util.AdaptiveScheduler;
+
+/**
+ * Parses markdown in a background thread.
+ *
+ * Each parse request is stamped with a document version.
+ * Only one parse per editor runs at a time. Requests that arrive while
+ * a parse is running are coalesced so that only the newest one is parsed next.
+ * Results of outdated versions are dropped and never published.
+ *
+ * The full text is fetched from the text supplier only when a parse is
+ * actually started, so that keystrokes that arrive while a parse is running
+ * do not create text copies.
+ *
+ * Parsing is started by an adaptive scheduler, which delays parsing
+ * of expensive (large) documents while typing. The measured cost includes
+ * parsing, publishing and processing (highlighting) of the result.
+ *
+ * The listener may return a task that processes the published AST in
+ * a background thread (e.g. computing syntax styles). Published ASTs are
+ * never modified; the next parse is started only after the task finished.
+ * The runnable returned by the task is invoked on the JavaFX application
+ * thread if the text did not change meanwhile.
+ *
+ * All methods must be invoked on the JavaFX application thread.
+ * The listener is also invoked on the JavaFX application thread.
+ *
+ * @author Karl Tauber
+ */
+class ParseService
+{
+	interface ParsedListener {
+		/**
+		 * Returns a task that is invoked in a background thread, or null.
+		 * The runnable returned by the task is invoked on the JavaFX application thread.
+		 *
+		 * @param parsed the parsed text and its AST; results computed from
+		 *               the AST (e.g. syntax styles) can be cached in it
+		 */
+		Callable<Runnable> parsed(ASTCache.Entry parsed);
+	}
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "markdown-parser");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static final long MAX_STALENESS = 300; // milliseconds
+
+	private final Supplier<String> textSupplier;
+	private final ParsedListener listener;
+	private final ParallelParser parallelParser = new ParallelParser();
+	private final AdaptiveScheduler scheduler = new AdaptiveScheduler(this::scheduled, MAX_STALENESS);
+
+	private long version;
+	private long publishedVersion;
+	private boolean running;
+	private boolean pending;
+
+	ParseService(Supplier<String> textSupplier, ParsedListener listener) {
+		this.textSupplier = textSupplier;
+		this.listener = listener;
+	}
+
+	/**
+	 * Requests parsing of the current text.
+	 * The text becomes the newest document version.
+	 */
+	void parse() {
+		assert Platform.isFxApplicationThread();
+
+		version++;
+		pending = true;
+
+		scheduler.schedule();
+	}
+
+	/**
+	 * Parses the current text synchronously and publishes its AST if the
+	 * newest document version has not yet been published (e.g. if the HTML
+	 * is requested immediately after setting the text).
+	 *
+	 * A running background parse is dropped. The newest version is parsed again
+	 * in background (an AST cache hit), which publishes the same AST and then
+	 * runs the processing task (e.g. highlighting) as usual.
+	 */
+	void parseNow() {
+		assert Platform.isFxApplicationThread();
+
+		if (publishedVersion == version)
+			return;
+
+		String text = textSupplier.get();
+		Parser parser = MarkdownExtensions.getFlexmarkParser(Options.getMarkdownRenderer());
+		ASTCache.Entry parsed = parallelParser.apply(parallelParser.parse(parser, text));
+
+		// drop results of running parse and process published AST in background
+		version++;
+		publishedVersion = version;
+		pending = true;
+		scheduler.schedule();
+
+		listener.parsed(parsed);
+	}
+
+	private void scheduled() {
+		if (pending && !running)
+			startPending();
+	}
+
+	private void startPending() {
+		final long parseVersion = version;
+		pending = false;
+
+		// fetch text only now (coalesces multiple changes)
+		final String text = textSupplier.get();
+
+		// parsers are shared and replaced if markdown extensions change
+		final Parser parser = MarkdownExtensions.getFlexmarkParser(Options.getMarkdownRenderer());
+
+		running = true;
+		executor.execute(() -> {
+			long startTime = System.nanoTime();
+			ParallelParser.Result result = null;
+			try {
+				result = parallelParser.parse(parser, text);
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+			long parseTime = System.nanoTime() - startTime;
+
+			final ParallelParser.Result result2 = result;
+			Platform.runLater(() -> parseFinished(parseVersion, result2, parseTime));
+		});
+	}
+
+	private void parseFinished(long parseVersion, ParallelParser.Result result, long parseTime) {
+		running = false;
+
+		// publish only the newest tree
+		if (parseVersion == version && result != null) {
+			long startTime = System.nanoTime();
+			publishedVersion = parseVersion;
+			ASTCache.Entry parsed = parallelParser.apply(result);
+			Callable<Runnable> processor = listener.parsed(parsed);
+			long publishTime = System.nanoTime() - startTime;
+
+			if (processor != null) {
+				// do not parse while processing
+				running = true;
+				executor.execute(() -> {
+					long processStartTime = System.nanoTime();
+					Runnable finisher = null;
+					try {
+						finisher = processor.call();
+					} catch (Exception ex) {
+						ex.printStackTrace();
+					}
+					long processTime = System.nanoTime() - processStartTime;
+
+					final Runnable finisher2 = finisher;
+					Platform.runLater(() -> processFinished(parseVersion, finisher2,
+						parseTime + publishTime + processTime));
+				});
+				return;
+			}
+
+			scheduler.reportCost(parseTime + publishTime);
+		}
+
+		startPendingIfNotScheduled();
+	}
+
+	private void processFinished(long processVersion, Runnable finisher, long cost) {
+		running = false;
+
+		// the processing result is only valid for the newest text
+		if (processVersion == version && finisher != null) {
+			long startTime = System.nanoTime();
+			finisher.run();
+			cost += System.nanoTime() - startTime;
+		}
+		scheduler.reportCost(cost);
+
+		startPendingIfNotScheduled();
+	}
+
+	private void startPendingIfNotScheduled() {
+		// parse newer text now, unless the scheduler waits for a quiet period
+		if (pending && !scheduler.isScheduled())
+			startPending();
+	}
+}
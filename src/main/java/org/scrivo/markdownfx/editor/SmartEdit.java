@@ -399,7 +399,7 @@ public class SmartEdit
 	 * Returns the line (paragraph) number for the given character offset.
 	 */
 	private int offsetToLine(int offset) {
-		return textArea.offsetToPosition(offset, Bias.Forward).getMajor();
+		return editor.getLineIndex().offsetToLine(offset, Bias.Forward);
 	}
 
 	/**
@@ -426,12 +426,8 @@ public class SmartEdit
 	 * The end offset includes the line separator.
 	 */
 	private IndexRange linesRange(int firstLine, int lastLine) {
-		int start = textArea.getAbsolutePosition(firstLine, 0);
-		int end = textArea.getAbsolutePosition(lastLine, textArea.getParagraph(lastLine).length());
-		if (end < textArea.getLength())
-			end++; // line separator
-
-		return new IndexRange(start, end);
+		LineIndex lineIndex = editor.getLineIndex();
+		return new IndexRange(lineIndex.getLineStart(firstLine), lineIndex.getLineEnd(lastLine));
 	}
 
 	public void setImageDialogClassName(String imageDialogClass) {
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import org.fxmisc.richtext.StyleClassedTextArea;
+import org.fxmisc.richtext.model.StyleSpan;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
+import org.fxmisc.richtext.model.TwoDimensional.Bias;
+import org.scrivo.markdownfx.util.PulseScheduler;
+
+/**
+ * Applies computed styles (text style spans and paragraph styles) to the text area.
+ *
+ * The styles of the visible paragraphs (plus a margin) are applied immediately.
+ * The remaining paragraphs are styled in chunks in later pulses, limited by
+ * the time budget of the pulse scheduler. Chunks near the visible paragraphs are styled first,
+ * which also re-prioritizes the remaining chunks when the user scrolls.
+ *
+ * Only the ranges where the new style spans differ from the style spans
+ * currently in the text area (the previously applied spans, shifted by edits)
+ * are restyled, so that a keystroke in one paragraph does not restyle
+ * (and re-layout) thousands of untouched paragraphs. Paragraph styles are
+ * run-length encoded and only paragraphs whose style differs are set
+ * (using the public API). Because each paragraph style change is a separate
+ * model update, only those of the visible paragraphs are set immediately;
+ * the others are set in small steps within the pulse budget, like the chunks.
+ *
+ * Find hits are a separate decoration layer, which is merged with the
+ * (retained) syntax style spans when applying. Changing the hits does not
+ * require re-highlighting and moving the active hit restyles only the old
+ * and new active hit ranges.
+ *
+ * Syntax styles are dropped if the text changes because they no longer
+ * match the text (a new highlighting follows anyway).
+ *
+ * @author Karl Tauber
+ */
+class StyleApplier
+{
+	private static final int CHUNK_SIZE = 100;				// paragraphs
+	private static final int VISIBLE_MARGIN = 20;			// paragraphs
+	private static final int PARAGRAPH_STYLE_STEP = 8;		// paragraphs
+	private static final Hits NO_HITS = new HitList(0);
+
+	private final StyleClassedTextArea textArea;
+	private final LineIndex lineIndex;
+	private final PulseScheduler pulseScheduler;
+	private final BooleanSupplier applyRemainingTask = this::applyNextChunk;
+
+	// syntax styles
+	private StyleSpans<Collection<String>> spans;
+	private ParagraphStyleRuns paragraphStyles;
+	private BitSet pendingChunks;
+	private BitSet pendingParagraphStyles;
+
+	// decorations
+	private Hits hits = NO_HITS;
+	private int activeHitIndex = -1;
+
+	StyleApplier(StyleClassedTextArea textArea, LineIndex lineIndex, PulseScheduler pulseScheduler) {
+		this.textArea = textArea;
+		this.lineIndex = lineIndex;
+		this.pulseScheduler = pulseScheduler;
+	}
+
+	/**
+	 * Applies the given syntax styles, visible paragraphs first.
+	 *
+	 * @param spans syntax style spans for the whole text
+	 * @param paragraphStyles paragraph styles for all paragraphs
+	 */
+	void apply(StyleSpans<Collection<String>> spans, ParagraphStyleRuns paragraphStyles) {
+		assert spans.length() == textArea.getLength();
+		assert paragraphStyles.getParagraphCount() == textArea.getParagraphs().size();
+
+		this.spans = spans;
+		this.paragraphStyles = paragraphStyles;
+
+		applyAll();
+	}
+
+	/**
+	 * Sets the find hits (sorted, not overlapping) and the index of the active hit.
+	 * Restyles only ranges that actually change.
+	 */
+	void setHits(Hits hits, int activeHitIndex) {
+		this.hits = (hits != null) ? hits : NO_HITS;
+		this.activeHitIndex = activeHitIndex;
+
+		if (spans != null)
+			applyAll();
+	}
+
+	/**
+	 * Sets the active hit (hits are unchanged).
+	 * Restyles only the old and new active hit ranges.
+	 */
+	void setActiveHit(int activeHitIndex) {
+		int oldActiveHitIndex = this.activeHitIndex;
+		this.activeHitIndex = activeHitIndex;
+
+		if (spans == null)
+			return;
+
+		restyleHit(oldActiveHitIndex);
+		restyleHit(activeHitIndex);
+	}
+
+	private void restyleHit(int index) {
+		if (index < 0 || index >= hits.size())
+			return;
+
+		int start = hits.start(index);
+		int end = hits.end(index);
+		if (start >= end || end > spans.length())
+			return;
+
+		textArea.setStyleSpans(start, decoratedSpans(start, end));
+	}
+
+	private void applyAll() {
+		int chunkCount = (paragraphStyles.getParagraphCount() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		pendingChunks = new BitSet(chunkCount);
+		pendingChunks.set(0, chunkCount);
+		pendingParagraphStyles = new BitSet();
+
+		// style visible paragraphs now
+		int[] visibleRange = visibleParagraphs();
+		int lastChunk = Math.min(visibleRange[1] / CHUNK_SIZE, chunkCount - 1);
+		for (int chunk = visibleRange[0] / CHUNK_SIZE; chunk <= lastChunk; chunk++)
+			applyChunk(chunk);
+		for (int i = pendingParagraphStyles.nextSetBit(visibleRange[0]); i >= 0 && i <= visibleRange[1]; i = pendingParagraphStyles.nextSetBit(i + 1))
+			applyParagraphStyle(i);
+
+		// style remaining paragraphs in later pulses
+		if (!pendingChunks.isEmpty() || !pendingParagraphStyles.isEmpty())
+			pulseScheduler.schedule(applyRemainingTask);
+	}
+
+	/**
+	 * Drops syntax styles. Must be invoked if the text changes.
+	 */
+	void cancel() {
+		spans = null;
+		paragraphStyles = null;
+		pendingChunks = null;
+		pendingParagraphStyles = null;
+		pulseScheduler.cancel(applyRemainingTask);
+	}
+
+	/**
+	 * Sets the pending paragraph styles that are nearest to the visible
+	 * paragraphs (a few per step), or applies the pending chunk that is nearest
+	 * to the visible paragraphs (which may have changed since the last pulse).
+	 * Returns whether there are more pending chunks or paragraph styles.
+	 */
+	private boolean applyNextChunk() {
+		if (pendingChunks == null || (pendingChunks.isEmpty() && pendingParagraphStyles.isEmpty()))
+			return false; // canceled or done
+
+		int[] visibleRange = visibleParagraphs();
+		int centerParagraph = (visibleRange[0] + visibleRange[1]) / 2;
+
+		if (!pendingParagraphStyles.isEmpty()) {
+			for (int n = 0; n < PARAGRAPH_STYLE_STEP; n++) {
+				int next = pendingParagraphStyles.nextSetBit(centerParagraph);
+				int paragraph = (next >= 0) ? next : pendingParagraphStyles.previousSetBit(centerParagraph);
+				if (paragraph < 0)
+					break;
+				applyParagraphStyle(paragraph);
+			}
+			return !pendingChunks.isEmpty() || !pendingParagraphStyles.isEmpty();
+		}
+
+		int centerChunk = centerParagraph / CHUNK_SIZE;
+
+		int nextChunk = pendingChunks.nextSetBit(centerChunk);
+		int previousChunk = pendingChunks.previousSetBit(centerChunk);
+		int chunk = (nextChunk < 0 || (previousChunk >= 0 && centerChunk - previousChunk < nextChunk - centerChunk))
+			? previousChunk
+			: nextChunk;
+		applyChunk(chunk);
+
+		return !pendingChunks.isEmpty() || !pendingParagraphStyles.isEmpty();
+	}
+
+	private void applyChunk(int chunk) {
+		if (!pendingChunks.get(chunk))
+			return;
+		pendingChunks.clear(chunk);
+
+		int firstParagraph = chunk * CHUNK_SIZE;
+		int endParagraph = Math.min(firstParagraph + CHUNK_SIZE, paragraphStyles.getParagraphCount());
+
+		// set text styles
+		int start = lineIndex.getLineStart(firstParagraph);
+		int end = lineIndex.getLineEnd(endParagraph - 1);
+		if (end > start) {
+			// set only changed styles
+			StyleSpans<Collection<String>> newSpans = decoratedSpans(start, end);
+			StyleSpans<Collection<String>> oldSpans = textArea.getStyleSpans(start, end);
+			int[] changedRange = changedRange(oldSpans, newSpans);
+			if (changedRange != null)
+				textArea.setStyleSpans(start + changedRange[0], newSpans.subView(changedRange[0], changedRange[1]));
+		}
+
+		// collect changed line styles (set later, see applyParagraphStyle())
+		//   (style class sets are interned, so an identity check is sufficient)
+		int run = paragraphStyles.runIndexOf(firstParagraph);
+		for (int i = firstParagraph; i < endParagraph; run++) {
+			Collection<String> ps = paragraphStyles.getRunStyle(run);
+			int runEnd = Math.min(paragraphStyles.getRunEnd(run), endParagraph);
+			for (; i < runEnd; i++) {
+				if (textArea.getParagraph(i).getParagraphStyle() != ps)
+					pendingParagraphStyles.set(i);
+			}
+		}
+	}
+
+	private void applyParagraphStyle(int paragraph) {
+		pendingParagraphStyles.clear(paragraph);
+
+		Collection<String> ps = paragraphStyles.getRunStyle(paragraphStyles.runIndexOf(paragraph));
+		if (textArea.getParagraph(paragraph).getParagraphStyle() != ps)
+			textArea.setParagraphStyle(paragraph, ps);
+	}
+
+	/**
+	 * Returns the syntax style spans of the given range merged with the hits.
+	 */
+	private StyleSpans<Collection<String>> decoratedSpans(int start, int end) {
+		StyleSpans<Collection<String>> syntaxSpans = spans.subView(start, end);
+
+		int hitIndex = hits.firstEndingAfter(start);
+		if (hitIndex >= hits.size() || hits.start(hitIndex) >= end)
+			return syntaxSpans; // no hits in range
+
+		// build decoration spans
+		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+		int pos = start;
+		int hitCount = hits.size();
+		for (int i = hitIndex; i < hitCount; i++) {
+			if (hits.start(i) >= end)
+				break;
+
+			int hitStart = Math.max(hits.start(i), pos);
+			int hitEnd = Math.min(hits.end(i), end);
+			if (hitStart > pos)
+				spansBuilder.add(Collections.emptyList(), hitStart - pos);
+			if (hitEnd > hitStart) {
+				spansBuilder.add(StyleClassTable.get((i == activeHitIndex)
+					? StyleClassTable.HIT | StyleClassTable.ACTIVE_HIT
+					: StyleClassTable.HIT), hitEnd - hitStart);
+				pos = hitEnd;
+			}
+		}
+		if (end > pos)
+			spansBuilder.add(Collections.emptyList(), end - pos);
+
+		return syntaxSpans.overlay(spansBuilder.create(), StyleApplier::decorate);
+	}
+
+	private static Collection<String> decorate(Collection<String> syntaxStyle, Collection<String> decorationStyle) {
+		if (decorationStyle.isEmpty())
+			return syntaxStyle;
+
+		return StyleClassTable.get(StyleClassTable.bits(syntaxStyle) | StyleClassTable.bits(decorationStyle));
+	}
+
+	/**
+	 * Returns the range where the given style spans (of same length) differ;
+	 * or null if they are equal.
+	 */
+	private static <S> int[] changedRange(StyleSpans<S> oldSpans, StyleSpans<S> newSpans) {
+		int length = newSpans.length();
+		int start = equalLength(oldSpans, newSpans, false);
+		if (start >= length)
+			return null;
+
+		int end = length - equalLength(oldSpans, newSpans, true);
+		return new int[] { start, end };
+	}
+
+	/**
+	 * Returns the length of the leading (or trailing) part where both style spans
+	 * have equal styles.
+	 */
+	private static <S> int equalLength(StyleSpans<S> spans1, StyleSpans<S> spans2, boolean backward) {
+		int count1 = spans1.getSpanCount();
+		int count2 = spans2.getSpanCount();
+		int index1 = 0;
+		int index2 = 0;
+		int remaining1 = 0;
+		int remaining2 = 0;
+		S style1 = null;
+		S style2 = null;
+		int length = 0;
+
+		for (;;) {
+			// next span(s); skip empty spans
+			while (remaining1 == 0) {
+				if (index1 >= count1)
+					return length;
+				StyleSpan<S> span = spans1.getStyleSpan(backward ? count1 - 1 - index1 : index1);
+				index1++;
+				remaining1 = span.getLength();
+				style1 = span.getStyle();
+			}
+			while (remaining2 == 0) {
+				if (index2 >= count2)
+					return length;
+				StyleSpan<S> span = spans2.getStyleSpan(backward ? count2 - 1 - index2 : index2);
+				index2++;
+				remaining2 = span.getLength();
+				style2 = span.getStyle();
+			}
+
+			if (!Objects.equals(style1, style2))
+				return length;
+
+			int n = Math.min(remaining1, remaining2);
+			length += n;
+			remaining1 -= n;
+			remaining2 -= n;
+		}
+	}
+
+	/**
+	 * Returns the range (inclusive) of visible paragraphs plus a margin.
+	 */
+	private int[] visibleParagraphs() {
+		int paragraphCount = textArea.getParagraphs().size();
+		if (textArea.getHeight() <= 0)
+			return new int[] { 0, Math.min(CHUNK_SIZE, paragraphCount) - 1 }; // not yet layouted
+
+		int firstOffset = textArea.hit(0, 0).getInsertionIndex();
+		int lastOffset = textArea.hit(0, textArea.getHeight()).getInsertionIndex();
+		int first = lineIndex.offsetToLine(firstOffset, Bias.Forward);
+		int last = lineIndex.offsetToLine(lastOffset, Bias.Forward);
+		return new int[] {
+			Math.max(first - VISIBLE_MARGIN, 0),
+			Math.min(last + VISIBLE_MARGIN, paragraphCount - 1)
+		};
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import org.scrivo.markdownfx.editor.MarkdownSyntaxHighlighter.StyleClass;
+
+/**
+ * Interning table for style class sets.
+ *
+ * Maps style bits (1 << StyleClass.ordinal(), plus decoration bits)
+ * to immutable style class collections. The same bits always give the same
+ * collection instance, which is shared by all editors and thread-safe.
+ * The table is never cleared; the number of distinct combinations is small.
+ *
+ * Decorations (find hits) have stable bits following the style classes.
+ *
+ * @author Karl Tauber
+ */
+class StyleClassTable
+{
+	private static final StyleClass[] styleClasses = StyleClass.values();
+
+	static final long HIT = 1L << styleClasses.length;
+	static final long ACTIVE_HIT = HIT << 1;
+	private static final String[] decorationNames = { "hit", "hit-active" };
+
+	private static final ConcurrentHashMap<Long, Collection<String>> table = new ConcurrentHashMap<>();
+
+	static {
+		assert styleClasses.length + decorationNames.length <= 64;
+	}
+
+	/**
+	 * Returns the (shared) style class collection for the given bits.
+	 */
+	static Collection<String> get(long bits) {
+		if (bits == 0)
+			return Collections.emptyList();
+
+		Collection<String> set = table.get(bits);
+		if (set == null) {
+			set = new StyleClassSet(bits);
+			Collection<String> oldSet = table.putIfAbsent(bits, set);
+			if (oldSet != null)
+				set = oldSet;
+		}
+		return set;
+	}
+
+	/**
+	 * Returns the bits of the given style class collection,
+	 * which must be returned from get() or be empty.
+	 */
+	static long bits(Collection<String> set) {
+		return (set instanceof StyleClassSet) ? ((StyleClassSet) set).bits : 0;
+	}
+
+	//---- class StyleClassSet ------------------------------------------------
+
+	private static class StyleClassSet
+		extends AbstractList<String>
+	{
+		final long bits;
+		private final String[] names;
+
+		StyleClassSet(long bits) {
+			this.bits = bits;
+
+			ArrayList<String> names = new ArrayList<>(Long.bitCount(bits));
+			for (StyleClass styleClass : styleClasses) {
+				if ((bits & (1L << styleClass.ordinal())) != 0)
+					names.add(styleClass.name());
+			}
+			for (int i = 0; i < decorationNames.length; i++) {
+				if ((bits & (HIT << i)) != 0)
+					names.add(decorationNames[i]);
+			}
+			this.names = names.toArray(new String[names.size()]);
+		}
+
+		@Override
+		public String get(int index) {
+			return names[index];
+		}
+
+		@Override
+		public int size() {
+			return names.length;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.editor;
+
+import java.util.Arrays;
+
+/**
+ * Collects (possibly overlapping) style ranges and merges them into
+ * sorted, non-overlapping ranges, where the style bits of overlapping
+ * ranges are combined.
+ *
+ * Uses an event sweep: begin and end events of all ranges are sorted once
+ * and then folded into the style bits, using a counter per style bit
+ * (nested nodes may have the same style). Runs in O(n log n) and stores
+ * all ranges in primitive arrays (no object per range).
+ *
+ * @author Karl Tauber
+ */
+class StyleRanges
+{
+	// added ranges
+	private int[] begins = new int[64];
+	private int[] ends = new int[64];
+	private long[] styleBits = new long[64];
+	private int count;
+
+	// merged ranges
+	private int[] mergedBegins;
+	private int[] mergedEnds;
+	private long[] mergedStyleBits;
+	private int mergedCount;
+
+	/**
+	 * Adds a style range.
+	 *
+	 * @param begin the beginning index, inclusive
+	 * @param end   the ending index, exclusive
+	 */
+	void add(int begin, int end, long bits) {
+		if (begin >= end || bits == 0)
+			return;
+
+		if (count == begins.length) {
+			int newLength = count * 2;
+			begins = Arrays.copyOf(begins, newLength);
+			ends = Arrays.copyOf(ends, newLength);
+			styleBits = Arrays.copyOf(styleBits, newLength);
+		}
+		begins[count] = begin;
+		ends[count] = end;
+		styleBits[count] = bits;
+		count++;
+	}
+
+	/**
+	 * Merges the added ranges. Afterwards, the merged ranges
+	 * are available via size(), begin(), end() and styleBits().
+	 */
+	void merge() {
+		mergedBegins = new int[count * 2];
+		mergedEnds = new int[count * 2];
+		mergedStyleBits = new long[count * 2];
+		mergedCount = 0;
+		if (count == 0)
+			return;
+
+		// events: position (high 32 bits), range index and end flag (low 32 bits)
+		long[] events = new long[count * 2];
+		for (int i = 0; i < count; i++) {
+			events[i * 2] = ((long) begins[i] << 32) | (i << 1);
+			events[i * 2 + 1] = ((long) ends[i] << 32) | (i << 1) | 1;
+		}
+		Arrays.sort(events);
+
+		int[] bitCounts = new int[64];
+		long bits = 0;
+		int position = (int) (events[0] >>> 32);
+		for (long event : events) {
+			int eventPosition = (int) (event >>> 32);
+			if (eventPosition != position) {
+				if (bits != 0)
+					addMerged(position, eventPosition, bits);
+				position = eventPosition;
+			}
+
+			int rangeIndex = (int) event >>> 1;
+			boolean end = (event & 1) != 0;
+			long rangeBits = styleBits[rangeIndex];
+			while (rangeBits != 0) {
+				int bit = Long.numberOfTrailingZeros(rangeBits);
+				rangeBits &= rangeBits - 1;
+
+				if (end) {
+					if (--bitCounts[bit] == 0)
+						bits &= ~(1L << bit);
+				} else {
+					if (bitCounts[bit]++ == 0)
+						bits |= 1L << bit;
+				}
+			}
+		}
+	}
+
+	private void addMerged(int begin, int end, long bits) {
+		mergedBegins[mergedCount] = begin;
+		mergedEnds[mergedCount] = end;
+		mergedStyleBits[mergedCount] = bits;
+		mergedCount++;
+	}
+
+	int size() {
+		return mergedCount;
+	}
+
+	int begin(int index) {
+		return mergedBegins[index];
+	}
+
+	int end(int index) {
+		return mergedEnds[index];
+	}
+
+	long styleBits(int index) {
+		return mergedStyleBits[index];
+	}
+}
@@ -33,13 +33,21 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.scrivo.markdownfx.Messages;
 import org.scrivo.markdownfx.options.Options.RendererType;
 
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+
 /**
  * Markdown extensions
  *
+ * Also provides shared flexmark parsers and HTML renderers.
+ * They are immutable and thread-safe, so one instance per extension set
+ * is used by all editors and previews (and their background threads).
+ *
  * @author Karl Tauber
  */
 public class MarkdownExtensions
@@ -48,6 +56,10 @@ public class MarkdownExtensions
 	static final HashMap<String, String> commonmarkExtClasses = new HashMap<>();
 	static final HashMap<String, String> flexmarkExtClasses = new HashMap<>();
 
+	// key is the list of extension class names
+	private static final ConcurrentHashMap<List<String>, Parser> flexmarkParsers = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<List<String>, HtmlRenderer> flexmarkHtmlRenderers = new ConcurrentHashMap<>();
+
 	static {
 		ResourceBundle bundle = ResourceBundle.getBundle("org.markdownwriterfx.MarkdownExtensions");
 		for (String key : bundle.keySet()) {
@@ -63,6 +75,12 @@ public class MarkdownExtensions
 		ids.addAll(flexmarkExtClasses.keySet());
 		for (String id : ids)
 			displayNames.put(id, Messages.get("MarkdownExtensionsPane.ext." + id));
+
+		// release parsers and renderers of no longer used extension sets
+		Options.markdownExtensionsProperty().addListener(e -> {
+			flexmarkParsers.clear();
+			flexmarkHtmlRenderers.clear();
+		});
 	}
 
 	public static String[] ids() {
@@ -89,8 +107,34 @@ public class MarkdownExtensions
 		return createdExtensions(flexmarkExtClasses, rendererType);
 	}
 
+	public static Parser getFlexmarkParser() {
+		return getFlexmarkParser(null);
+	}
+
+	public static Parser getFlexmarkParser(RendererType rendererType) {
+		return flexmarkParsers.computeIfAbsent(extClassNames(flexmarkExtClasses, rendererType),
+			extClassNames -> Parser.builder()
+				.extensions(MarkdownExtensions.<com.vladsch.flexmark.Extension>createdExtensions(extClassNames))
+				.build());
+	}
+
+	public static HtmlRenderer getFlexmarkHtmlRenderer() {
+		return getFlexmarkHtmlRenderer(null);
+	}
+
+	public static HtmlRenderer getFlexmarkHtmlRenderer(RendererType rendererType) {
+		return flexmarkHtmlRenderers.computeIfAbsent(extClassNames(flexmarkExtClasses, rendererType),
+			extClassNames -> HtmlRenderer.builder()
+				.extensions(MarkdownExtensions.<com.vladsch.flexmark.Extension>createdExtensions(extClassNames))
+				.build());
+	}
+
 	private static <E> ArrayList<E> createdExtensions(HashMap<String, String> extClasses, RendererType rendererType) {
-		ArrayList<E> extensions = new ArrayList<>();
+		return createdExtensions(extClassNames(extClasses, rendererType));
+	}
+
+	private static List<String> extClassNames(HashMap<String, String> extClasses, RendererType rendererType) {
+		ArrayList<String> extClassNames = new ArrayList<>();
 		for (String markdownExtension : flexmarkExtClasses.values()) {
 			if (rendererType != null && !isAvailable(rendererType, markdownExtension))
 				continue;
@@ -99,6 +143,14 @@ public class MarkdownExtensions
 			if (extClassName == null)
 				continue; // extension not supported by renderer
 
+			extClassNames.add(extClassName);
+		}
+		return extClassNames;
+	}
+
+	private static <E> ArrayList<E> createdExtensions(List<String> extClassNames) {
+		ArrayList<E> extensions = new ArrayList<>();
+		for (String extClassName : extClassNames) {
 			try {
 				Class<?> cls = Class.forName(extClassName);
 				Method createMethod = cls.getMethod("create");
@@ -59,6 +59,8 @@ public class Options
 	public static final int DEF_FONT_SIZE = 12;
 	public static final int MIN_FONT_SIZE = 8;
 	public static final int MAX_FONT_SIZE = 36;
+	public static final int DEF_FIND_MAX_HITS = 10000;
+	public static final int MIN_FIND_MAX_HITS = 100;
 	public static final String DEF_MARKDOWN_FILE_EXTENSIONS = "*.md,*.markdown,*.txt";
 	public enum RendererType { CommonMark, FlexMark };
 
@@ -72,6 +74,7 @@ public class Options
 		markdownRenderer.init(options, "markdownRenderer", RendererType.CommonMark);
 		showLineNo.init(options, "showLineNo", false);
 		showWhitespace.init(options, "showWhitespace", false);
+		findMaxHits.init(options, "findMaxHits", DEF_FIND_MAX_HITS);
 	}
 
 	/**
@@ -143,4 +146,10 @@ public class Options
 	public static boolean isShowWhitespace() { return showWhitespace.get(); }
 	public static void setShowWhitespace(boolean showWhitespace) { Options.showWhitespace.set(showWhitespace); }
 	public static BooleanProperty showWhitespaceProperty() { return showWhitespace; }
+
+	// 'findMaxHits' property
+	private static final PrefsIntegerProperty findMaxHits = new PrefsIntegerProperty();
+	public static int getFindMaxHits() { return findMaxHits.get(); }
+	public static void setFindMaxHits(int findMaxHits) { Options.findMaxHits.set(Math.max(findMaxHits, MIN_FIND_MAX_HITS)); }
+	public static IntegerProperty findMaxHitsProperty() { return findMaxHits; }
 }
@@ -74,9 +74,7 @@ class FlexmarkPreviewRenderer
 		if (astRoot == null)
 			return "";
 
-		HtmlRenderer renderer = HtmlRenderer.builder()
-				.extensions(MarkdownExtensions.getFlexmarkExtensions())
-				.build();
+		HtmlRenderer renderer = MarkdownExtensions.getFlexmarkHtmlRenderer();
 		return renderer.render(astRoot);
 	}
 
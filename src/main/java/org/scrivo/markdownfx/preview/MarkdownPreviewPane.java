@@ -28,8 +28,12 @@
 package org.scrivo.markdownfx.preview;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.scrivo.markdownfx.options.Options.RendererType;
+import org.scrivo.markdownfx.util.AdaptiveScheduler;
+import org.scrivo.markdownfx.util.Utils;
 
 import javafx.application.Platform;
 import javafx.beans.property.DoubleProperty;
@@ -37,6 +41,10 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.beans.value.WeakChangeListener;
+import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 
 import com.vladsch.flexmark.ast.Node;
@@ -44,22 +52,43 @@ import com.vladsch.flexmark.ast.Node;
 /**
  * Markdown preview pane.
  *
+ * The renderer caches its output per AST, so the HTML is rendered only once
+ * per AST for the web view preview, the HTML source preview and getHTML().
+ * Rendering is paused while no preview is active or the preview pane is
+ * not showing (e.g. in an inactive tab), and resumed when it is shown again.
+ *
  * @author Karl Tauber
  */
 public class MarkdownPreviewPane
 {
 	public enum Type { None, Web, Source, Ast };
 
+	private static final long MAX_STALENESS = 300; // milliseconds
+
 	private final BorderPane pane = new BorderPane();
 	private final WebViewPreview webViewPreview = new WebViewPreview();
 	private final HtmlSourcePreview htmlSourcePreview = new HtmlSourcePreview();
 	private final ASTPreview astPreview = new ASTPreview();
 
 	private RendererType activeRendererType;
-	private Renderer activeRenderer;
+	private Renderer activeRenderer = new FlexmarkPreviewRenderer();
 	private Preview activePreview;
 
+	// state of the last preview update
+	private Preview updatedPreview;
+	private Node updatedAST;
+	private Path updatedPath;
+	private boolean updatePending;
+
+	// observed properties that affect isShowing()
+	private final List<ObservableValue<?>> showingObservables = new ArrayList<>();
+	private final ChangeListener<Object> showingListener = (observable, oldValue, newValue) -> showingChanged();
+	private final WeakChangeListener<Object> weakShowingListener = new WeakChangeListener<>(showingListener);
+
 	interface Renderer {
+		/**
+		 * Sets the AST to render. Cached results are kept if the AST is unchanged.
+		 */
 		void update(String markdownText, Node astRoot);
 		String getHtml();
 		String getAST();
@@ -78,6 +107,9 @@ public class MarkdownPreviewPane
 		markdownText.addListener((observable, oldValue, newValue) -> update() );
 		markdownAST.addListener((observable, oldValue, newValue) -> update() );
 
+		// resume paused updates when shown again
+		showingChanged();
+
 		scrollY.addListener((observable, oldValue, newValue) -> {
 			scrollY();
 		});
@@ -95,6 +127,7 @@ public class MarkdownPreviewPane
 			return;
 		activeRendererType = rendererType;
 		activePreview = null;
+		updatedPreview = null;
 
 		switch (rendererType) {
 			case FlexMark:		activeRenderer = new FlexmarkPreviewRenderer(); break;
@@ -109,8 +142,12 @@ public class MarkdownPreviewPane
 			case Ast:		preview = astPreview; break;
 			default:		preview = null; break;
 		}
-		if (activePreview == preview)
+		if (activePreview == preview) {
+			// resume paused updates (e.g. when the tab becomes active)
+			if (updatePending)
+				update();
 			return;
+		}
 
 		activePreview = preview;
 		pane.setCenter((preview != null) ? preview.getNode() : null);
@@ -119,22 +156,84 @@ public class MarkdownPreviewPane
 		scrollY();
 	}
 
-	private boolean updateRunLaterPending;
+	// delays updates of expensive (large) documents while typing
+	private final AdaptiveScheduler updateScheduler = new AdaptiveScheduler(this::doUpdate, MAX_STALENESS);
+
 	private void update() {
 		if (activePreview == null)
 			return;
 
-		// avoid too many (and useless) runLater() invocations
-		if (updateRunLaterPending)
+		updateScheduler.schedule();
+	}
+
+	private void doUpdate() {
+		if (activePreview == null)
 			return;
-		updateRunLaterPending = true;
 
-		Platform.runLater(() -> {
-			updateRunLaterPending = false;
+		// pause while not showing
+		if (!isShowing()) {
+			updatePending = true;
+			return;
+		}
+		updatePending = false;
 
-			activeRenderer.update(getMarkdownText(), getMarkdownAST());
-			activePreview.update(activeRenderer, getPath());
-		});
+		// skip if the preview already shows the AST
+		// (e.g. on markdown text changes, which are followed by AST changes)
+		Node astRoot = getMarkdownAST();
+		Path path = getPath();
+		if (activePreview == updatedPreview && astRoot == updatedAST && Utils.safeEquals(path, updatedPath))
+			return;
+
+		long startTime = System.nanoTime();
+
+		activeRenderer.update(getMarkdownText(), astRoot);
+		activePreview.update(activeRenderer, path);
+
+		updatedPreview = activePreview;
+		updatedAST = astRoot;
+		updatedPath = path;
+
+		updateScheduler.reportCost(System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Invoked when the scene, window, window showing state or the parent or
+	 * visibility of the preview pane or one of its ancestors changes.
+	 */
+	private void showingChanged() {
+		// observe the current window and ancestors (the old ones may be replaced)
+		for (ObservableValue<?> observable : showingObservables)
+			observable.removeListener(weakShowingListener);
+		showingObservables.clear();
+
+		for (javafx.scene.Node node = pane; node != null; node = node.getParent()) {
+			showingObservables.add(node.visibleProperty());
+			showingObservables.add(node.parentProperty());
+		}
+		showingObservables.add(pane.sceneProperty());
+		Scene scene = pane.getScene();
+		if (scene != null) {
+			showingObservables.add(scene.windowProperty());
+			if (scene.getWindow() != null)
+				showingObservables.add(scene.getWindow().showingProperty());
+		}
+
+		for (ObservableValue<?> observable : showingObservables)
+			observable.addListener(weakShowingListener);
+
+		if (updatePending && isShowing())
+			update();
+	}
+
+	private boolean isShowing() {
+		if (pane.getScene() == null || pane.getScene().getWindow() == null || !pane.getScene().getWindow().isShowing())
+			return false;
+
+		for (javafx.scene.Node node = pane; node != null; node = node.getParent()) {
+			if (!node.isVisible())
+				return false;
+		}
+		return true;
 	}
 
 	private boolean scrollYrunLaterPending;
@@ -178,6 +277,8 @@ public class MarkdownPreviewPane
 	public DoubleProperty scrollYProperty() { return scrollY; }
 
 	public String getHTML() {
+		// uses the cached HTML if the preview already rendered the current AST
+		activeRenderer.update(getMarkdownText(), getMarkdownAST());
 		return activeRenderer.getHtml();
 	}
 
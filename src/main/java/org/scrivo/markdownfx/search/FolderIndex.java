@@ -0,0 +1,644 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.scrivo.markdownfx.util.Utils;
+
+/**
+ * Inverted index of the markdown files in a folder (and its sub-folders).
+ *
+ * The index is stored in the user home directory (not in the indexed folder)
+ * and is updated incrementally: only new and modified files (by last modified
+ * time and size) are read and tokenized and written to a new (small) segment
+ * file. The new segment supersedes the documents of modified and deleted files
+ * in the older segments. Segments are merged into a single segment by merge()
+ * (invoked after updating), when there are too many segments or too many
+ * superseded documents. The postings of the older segments are streamed from
+ * the memory-mapped segment files while merging, merged term by term.
+ * Searches continue to use the previous segments while updating or merging.
+ *
+ * Updating and merging are synchronized and should be invoked in a background
+ * thread. Searching is thread-safe and can run concurrently with updating.
+ *
+ * @author Karl Tauber
+ */
+public class FolderIndex
+{
+	private static final int MAX_TERM_LENGTH = 64;
+	private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;	// bytes
+	private static final int CHUNK_SIZE = 256;					// files tokenized in parallel
+	private static final int MAX_SEGMENTS = 8;
+
+	private final Path folder;
+	private final Path indexDir;
+	private volatile Segments segments = new Segments(new Path[0], new IndexFile[0]);
+	private boolean opened;
+	private int generation;
+
+	public FolderIndex(Path folder) {
+		this.folder = folder.toAbsolutePath().normalize();
+
+		String folderId = UUID.nameUUIDFromBytes(this.folder.toString().getBytes(StandardCharsets.UTF_8)).toString();
+		this.indexDir = Paths.get(System.getProperty("user.home"), ".markdownfx", "index", folderId);
+	}
+
+	public Path getFolder() {
+		return folder;
+	}
+
+	public int getDocumentCount() {
+		return segments.docCount;
+	}
+
+	/**
+	 * Loads the last written segments (if any), without looking at the folder.
+	 */
+	public synchronized void open() {
+		if (opened)
+			return;
+		opened = true;
+
+		// newest first
+		List<Path> files = listIndexFiles();
+		for (Path file : files)
+			generation = Math.max(generation, parseGeneration(file));
+		files.removeIf(file -> !file.toString().endsWith(".idx"));
+		files.sort(Comparator.comparingInt(FolderIndex::parseGeneration).reversed());
+
+		List<Path> segmentFiles = new ArrayList<>();
+		List<IndexFile> indexFiles = new ArrayList<>();
+		int firstGeneration = Integer.MAX_VALUE;
+		try {
+			for (Path file : files) {
+				// skip segments replaced by newer segments (e.g. not deleted after merging)
+				if (parseGeneration(file) >= firstGeneration)
+					continue;
+
+				IndexFile indexFile = IndexFile.read(file);
+				segmentFiles.add(0, file);
+				indexFiles.add(0, indexFile);
+				firstGeneration = indexFile.firstGeneration;
+			}
+		} catch (IOException ex) {
+			// ignore broken index; rebuilt on next update
+			ex.printStackTrace();
+			return;
+		}
+
+		segments = new Segments(segmentFiles.toArray(new Path[segmentFiles.size()]),
+			indexFiles.toArray(new IndexFile[indexFiles.size()]));
+	}
+
+	/**
+	 * Updates the index from the markdown files in the folder.
+	 * Files are decoded using the given encoding (null for platform default).
+	 * If the index was built using another encoding, it is rebuilt.
+	 *
+	 * Returns false if the index is already up to date or if updating was canceled.
+	 *
+	 * @param fileExtensions comma separated markdown file name patterns (e.g. "*.md, *.markdown")
+	 */
+	public synchronized boolean update(String encoding, String fileExtensions, BooleanSupplier canceled)
+		throws IOException
+	{
+		open();
+
+		Map<String, BasicFileAttributes> files = scanFolder(createFileMatcher(fileExtensions), canceled);
+		if (files == null)
+			return false;
+
+		String encodingId = (encoding != null) ? encoding : "";
+		Segments oldSegments = segments;
+		boolean rebuild = false;
+		for (IndexFile indexFile : oldSegments.indexFiles)
+			rebuild |= !indexFile.encoding.equals(encodingId);
+		if (rebuild)
+			oldSegments = new Segments(new Path[0], new IndexFile[0]);
+
+		// skip unchanged files; remaining files are new or modified
+		List<String> deletedPaths = new ArrayList<>();
+		for (int s = 0; s < oldSegments.indexFiles.length; s++) {
+			IndexFile indexFile = oldSegments.indexFiles[s];
+			BitSet live = oldSegments.live[s];
+			for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+				String path = indexFile.paths[doc];
+				BasicFileAttributes attrs = files.get(path);
+				if (attrs == null)
+					deletedPaths.add(path);
+				else if (attrs.lastModifiedTime().toMillis() == indexFile.lastModified[doc] &&
+						 attrs.size() == indexFile.sizes[doc])
+					files.remove(path);
+			}
+		}
+
+		if (!rebuild && files.isEmpty() && deletedPaths.isEmpty())
+			return false; // up to date
+
+		// tokenize new and modified files (in parallel, chunk by chunk to limit memory usage)
+		List<String> paths = new ArrayList<>(files.keySet());
+		Collections.sort(paths);
+		long[] lastModified = new long[paths.size()];
+		long[] sizes = new long[paths.size()];
+		SortedMap<String, Postings> termPostings = new TreeMap<>();
+		for (int chunkStart = 0; chunkStart < paths.size(); chunkStart += CHUNK_SIZE) {
+			if (canceled.getAsBoolean())
+				return false;
+
+			List<String> chunk = paths.subList(chunkStart, Math.min(chunkStart + CHUNK_SIZE, paths.size()));
+			List<Map<String, int[]>> chunkTerms = chunk.parallelStream()
+				.map(path -> tokenizeFile(path, files.get(path), encoding))
+				.collect(Collectors.toList());
+
+			for (int i = 0; i < chunk.size(); i++) {
+				int doc = chunkStart + i;
+				BasicFileAttributes attrs = files.get(chunk.get(i));
+				lastModified[doc] = attrs.lastModifiedTime().toMillis();
+				sizes[doc] = attrs.size();
+
+				for (Map.Entry<String, int[]> e : chunkTerms.get(i).entrySet())
+					termPostings.computeIfAbsent(e.getKey(), term -> new Postings()).add(doc, e.getValue()[0]);
+			}
+		}
+
+		// write new segment (replaces all older segments if there are none to keep)
+		int newGeneration = generation + 1;
+		int firstGeneration = (oldSegments.indexFiles.length > 0) ? newGeneration : 1;
+		Path newFile = writeSegment(newGeneration, firstGeneration, encodingId, paths, lastModified, sizes,
+			deletedPaths, new MergedTerms(new IndexFile[0], new int[0][], termPostings), canceled);
+		if (newFile == null)
+			return false;
+
+		segments = oldSegments.add(newFile, IndexFile.read(newFile));
+		generation = newGeneration;
+
+		deleteObsoleteIndexFiles();
+		return true;
+	}
+
+	/**
+	 * Merges all segments into a single segment, if there are too many segments
+	 * or too many superseded documents in the segments.
+	 *
+	 * Returns false if merging is not necessary or if merging was canceled.
+	 */
+	public synchronized boolean merge(BooleanSupplier canceled) throws IOException {
+		Segments oldSegments = segments;
+		IndexFile[] indexFiles = oldSegments.indexFiles;
+		int totalDocCount = 0;
+		for (IndexFile indexFile : indexFiles)
+			totalDocCount += indexFile.getDocumentCount();
+		int docCount = oldSegments.docCount;
+		if (indexFiles.length <= MAX_SEGMENTS && totalDocCount - docCount <= docCount / 2)
+			return false;
+
+		// take over live documents (in segment order, oldest first)
+		List<String> paths = new ArrayList<>(docCount);
+		long[] lastModified = new long[docCount];
+		long[] sizes = new long[docCount];
+		int[][] docMaps = new int[indexFiles.length][];
+		for (int s = 0; s < indexFiles.length; s++) {
+			IndexFile indexFile = indexFiles[s];
+			int[] docMap = docMaps[s] = new int[indexFile.getDocumentCount()];
+			for (int doc = 0; doc < docMap.length; doc++) {
+				if (!oldSegments.live[s].get(doc)) {
+					docMap[doc] = -1;
+					continue;
+				}
+
+				docMap[doc] = paths.size();
+				lastModified[paths.size()] = indexFile.lastModified[doc];
+				sizes[paths.size()] = indexFile.sizes[doc];
+				paths.add(indexFile.paths[doc]);
+			}
+		}
+
+		// write merged segment, which replaces all older segments
+		// (postings are taken over from the older segments while writing)
+		int newGeneration = generation + 1;
+		String encoding = (indexFiles.length > 0) ? indexFiles[0].encoding : "";
+		Path newFile = writeSegment(newGeneration, 1, encoding, paths, lastModified, sizes,
+			Collections.emptyList(), new MergedTerms(indexFiles, docMaps, new TreeMap<>()), canceled);
+		if (newFile == null)
+			return false;
+
+		segments = new Segments(new Path[0], new IndexFile[0]).add(newFile, IndexFile.read(newFile));
+		generation = newGeneration;
+
+		deleteObsoleteIndexFiles();
+		return true;
+	}
+
+	/**
+	 * Writes a segment file. Returns null if canceled.
+	 */
+	private Path writeSegment(int generation, int firstGeneration, String encoding,
+		List<String> paths, long[] lastModified, long[] sizes, List<String> deletedPaths,
+		IndexFile.TermSource termSource, BooleanSupplier canceled)
+		throws IOException
+	{
+		Files.createDirectories(indexDir);
+		Path tempFile = indexDir.resolve("index-" + generation + ".tmp");
+		Path newFile = indexDir.resolve("index-" + generation + ".idx");
+		boolean written = IndexFile.write(tempFile, firstGeneration, encoding,
+			paths, lastModified, sizes, deletedPaths, termSource, canceled);
+		if (!written) {
+			Files.deleteIfExists(tempFile);
+			return null;
+		}
+		Files.move(tempFile, newFile, StandardCopyOption.ATOMIC_MOVE);
+		return newFile;
+	}
+
+	/**
+	 * Searches the index for files that contain all words of the given query.
+	 * Returns at most maxResults files, ranked by relevance (TF-IDF).
+	 */
+	public List<Result> search(String query, int maxResults) {
+		Segments segments = this.segments;
+		if (segments.docCount == 0)
+			return Collections.emptyList();
+
+		Set<String> queryTerms = new LinkedHashSet<>();
+		tokenize(query, queryTerms::add);
+		if (queryTerms.isEmpty())
+			return Collections.emptyList();
+
+		// document frequencies of all segments
+		// (include superseded documents, which are removed when merging)
+		int docCount = segments.docCount;
+		IndexFile[] indexFiles = segments.indexFiles;
+		int[][] termIndices = new int[indexFiles.length][queryTerms.size()];
+		float[] idfs = new float[queryTerms.size()];
+		int t = 0;
+		for (String term : queryTerms) {
+			int docFreq = 0;
+			for (int s = 0; s < indexFiles.length; s++) {
+				int termIndex = termIndices[s][t] = indexFiles[s].findTerm(term);
+				if (termIndex >= 0)
+					docFreq += indexFiles[s].docFreq(termIndex);
+			}
+			if (docFreq == 0)
+				return Collections.emptyList();
+			idfs[t++] = (float) Math.log(1 + (double) docCount / docFreq);
+		}
+
+		PriorityQueue<Result> best = new PriorityQueue<>(Comparator.comparingDouble(Result::getScore));
+		for (int s = 0; s < indexFiles.length; s++)
+			searchSegment(indexFiles[s], segments.live[s], termIndices[s], idfs, best, maxResults);
+
+		List<Result> results = new ArrayList<>(best);
+		results.sort(Comparator.comparingDouble(Result::getScore).reversed());
+		return results;
+	}
+
+	/**
+	 * Adds the best live files of the given segment that contain all terms to 'best'.
+	 */
+	private void searchSegment(IndexFile indexFile, BitSet live, int[] termIndices, float[] idfs,
+		PriorityQueue<Result> best, int maxResults)
+	{
+		for (int termIndex : termIndices) {
+			if (termIndex < 0)
+				return; // no file of this segment contains all terms
+		}
+
+		// accumulate scores
+		int docCount = indexFile.getDocumentCount();
+		float[] scores = new float[docCount];
+		int[] matchCounts = new int[docCount];
+		for (int t = 0; t < termIndices.length; t++) {
+			IndexFile.PostingsIterator it = indexFile.postings(termIndices[t]);
+			while (it.next()) {
+				scores[it.doc] += (1 + (float) Math.log(it.freq)) * idfs[t];
+				matchCounts[it.doc]++;
+			}
+		}
+
+		// collect best files that contain all terms
+		for (int doc = 0; doc < docCount; doc++) {
+			if (matchCounts[doc] != termIndices.length || !live.get(doc))
+				continue;
+
+			best.add(new Result(folder, indexFile.paths[doc], scores[doc]));
+			if (best.size() > maxResults)
+				best.poll();
+		}
+	}
+
+	/**
+	 * Splits the given text into lower case words (letters and digits).
+	 */
+	static void tokenize(CharSequence text, Consumer<String> consumer) {
+		StringBuilder term = new StringBuilder();
+		int length = text.length();
+		for (int i = 0; i <= length; i++) {
+			char ch = (i < length) ? text.charAt(i) : ' ';
+			if (Character.isLetterOrDigit(ch)) {
+				if (term.length() < MAX_TERM_LENGTH)
+					term.append(Character.toLowerCase(ch));
+			} else if (term.length() > 0) {
+				consumer.accept(term.toString());
+				term.setLength(0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the term frequencies of the given file.
+	 * The file is decoded using the given encoding, same as when opening it in an editor.
+	 */
+	private Map<String, int[]> tokenizeFile(String path, BasicFileAttributes attrs, String encoding) {
+		Map<String, int[]> terms = new HashMap<>();
+		if (attrs.size() > MAX_FILE_SIZE)
+			return terms;
+
+		String text;
+		try {
+			text = Utils.decode(Files.readAllBytes(folder.resolve(path)), encoding);
+		} catch (IOException ex) {
+			return terms; // e.g. deleted in the meantime
+		}
+
+		tokenize(text, term -> terms.computeIfAbsent(term, t -> new int[1])[0]++);
+		return terms;
+	}
+
+	/**
+	 * Returns all markdown files in the folder (relative paths with '/' separators),
+	 * or null if canceled. Hidden folders (e.g. .git) are skipped.
+	 */
+	private Map<String, BasicFileAttributes> scanFolder(PathMatcher matcher, BooleanSupplier canceled)
+		throws IOException
+	{
+		Map<String, BasicFileAttributes> files = new HashMap<>();
+		Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (canceled.getAsBoolean())
+					return FileVisitResult.TERMINATE;
+				if (!dir.equals(folder) && dir.getFileName().toString().startsWith("."))
+					return FileVisitResult.SKIP_SUBTREE;
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile() && matcher.matches(file.getFileName()))
+					files.put(folder.relativize(file).toString().replace(File.separatorChar, '/'), attrs);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException ex) {
+				return FileVisitResult.CONTINUE; // skip unreadable files and folders
+			}
+		});
+		return canceled.getAsBoolean() ? null : files;
+	}
+
+	private static PathMatcher createFileMatcher(String fileExtensions) {
+		String[] extensions = fileExtensions.trim().split("\\s*,\\s*");
+		return FileSystems.getDefault().getPathMatcher("glob:{" + String.join(",", extensions) + "}");
+	}
+
+	private List<Path> listIndexFiles() {
+		List<Path> files = new ArrayList<>();
+		if (!Files.isDirectory(indexDir))
+			return files;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(indexDir, "index-*")) {
+			for (Path file : stream)
+				files.add(file);
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		}
+		return files;
+	}
+
+	private static int parseGeneration(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		try {
+			return Integer.parseInt(name.substring("index-".length(), (dot >= 0) ? dot : name.length()));
+		} catch (NumberFormatException | IndexOutOfBoundsException ex) {
+			return 0;
+		}
+	}
+
+	private void deleteObsoleteIndexFiles() {
+		List<Path> segmentFiles = Arrays.asList(segments.files);
+		for (Path file : listIndexFiles()) {
+			if (segmentFiles.contains(file))
+				continue;
+
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException ex) {
+				// ignore; e.g. on Windows, mapped files can not be deleted
+				// until they are unmapped (garbage collected); retried on next update
+				// (replaced segments are skipped when opening the index)
+			}
+		}
+	}
+
+	//---- class Result -------------------------------------------------------
+
+	public static class Result
+	{
+		private final Path folder;
+		private final String path;
+		private final float score;
+
+		Result(Path folder, String path, float score) {
+			this.folder = folder;
+			this.path = path;
+			this.score = score;
+		}
+
+		public Path getPath() {
+			return folder.resolve(path);
+		}
+
+		public float getScore() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return path;
+		}
+	}
+
+	//---- class Segments ---------------------------------------------------
+
+	/**
+	 * Immutable list of segments (oldest first) with the live (not superseded)
+	 * documents of each segment.
+	 */
+	private static class Segments
+	{
+		final Path[] files;
+		final IndexFile[] indexFiles;
+		final BitSet[] live;
+		final int docCount;
+
+		Segments(Path[] files, IndexFile[] indexFiles) {
+			this.files = files;
+			this.indexFiles = indexFiles;
+			this.live = new BitSet[indexFiles.length];
+
+			// documents are superseded by documents with the same path
+			// or by deleted paths in newer segments
+			Set<String> superseded = new HashSet<>();
+			int docCount = 0;
+			for (int s = indexFiles.length - 1; s >= 0; s--) {
+				IndexFile indexFile = indexFiles[s];
+				live[s] = new BitSet(indexFile.getDocumentCount());
+				for (int doc = 0; doc < indexFile.getDocumentCount(); doc++) {
+					if (!superseded.contains(indexFile.paths[doc])) {
+						live[s].set(doc);
+						docCount++;
+					}
+				}
+				if (s > 0) {
+					Collections.addAll(superseded, indexFile.paths);
+					Collections.addAll(superseded, indexFile.deletedPaths);
+				}
+			}
+			this.docCount = docCount;
+		}
+
+		Segments add(Path file, IndexFile indexFile) {
+			Path[] newFiles = Arrays.copyOf(files, files.length + 1);
+			IndexFile[] newIndexFiles = Arrays.copyOf(indexFiles, indexFiles.length + 1);
+			newFiles[files.length] = file;
+			newIndexFiles[indexFiles.length] = indexFile;
+			return new Segments(newFiles, newIndexFiles);
+		}
+	}
+
+	//---- class MergedTerms --------------------------------------------------
+
+	/**
+	 * Merges the postings of the live documents of segments (mapped to
+	 * the new document ids) with the postings of tokenized files, term by term
+	 * in ascending order. Segment postings are decoded from the memory-mapped
+	 * segment files while writing; they are not loaded into memory.
+	 */
+	private static class MergedTerms
+		implements IndexFile.TermSource
+	{
+		private final IndexFile[] segments;
+		private final int[][] docMaps;
+		private final int[] segmentTerms;
+		private final Iterator<Map.Entry<String, Postings>> newTerms;
+
+		private Map.Entry<String, Postings> newTerm;
+
+		/**
+		 * @param docMaps per segment, new document ids (or -1 to drop the document);
+		 *                must be ascending over all segments and below the ids of tokenized files
+		 */
+		MergedTerms(IndexFile[] segments, int[][] docMaps, SortedMap<String, Postings> newTermPostings) {
+			this.segments = segments;
+			this.docMaps = docMaps;
+			this.segmentTerms = new int[segments.length];
+			this.newTerms = newTermPostings.entrySet().iterator();
+			this.newTerm = newTerms.hasNext() ? newTerms.next() : null;
+		}
+
+		@Override
+		public String next(IndexFile.PostingsWriter writer) throws IOException {
+			// find smallest term
+			String term = (newTerm != null) ? newTerm.getKey() : null;
+			for (int s = 0; s < segments.length; s++) {
+				if (segmentTerms[s] < segments[s].getTermCount()) {
+					String segmentTerm = segments[s].term(segmentTerms[s]);
+					if (term == null || segmentTerm.compareTo(term) < 0)
+						term = segmentTerm;
+				}
+			}
+			if (term == null)
+				return null;
+
+			// segments first (they have lower document ids than tokenized files)
+			for (int s = 0; s < segments.length; s++) {
+				if (segmentTerms[s] >= segments[s].getTermCount() ||
+					!segments[s].term(segmentTerms[s]).equals(term))
+					continue;
+
+				int[] docMap = docMaps[s];
+				IndexFile.PostingsIterator it = segments[s].postings(segmentTerms[s]++);
+				while (it.next()) {
+					int doc = docMap[it.doc];
+					if (doc >= 0)
+						writer.add(doc, it.freq);
+				}
+			}
+			if (newTerm != null && newTerm.getKey().equals(term)) {
+				Postings postings = newTerm.getValue();
+				for (int i = 0; i < postings.size(); i++)
+					writer.add(postings.doc(i), postings.freq(i));
+				newTerm = newTerms.hasNext() ? newTerms.next() : null;
+			}
+			return term;
+		}
+	}
+}
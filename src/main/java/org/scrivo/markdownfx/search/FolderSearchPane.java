@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.search;
+
+import static javafx.scene.input.KeyCode.ENTER;
+import static javafx.scene.input.KeyCode.ESCAPE;
+import static org.fxmisc.wellbehaved.event.EventPattern.keyPressed;
+import static org.fxmisc.wellbehaved.event.InputMap.consume;
+import static org.fxmisc.wellbehaved.event.InputMap.sequence;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.stage.DirectoryChooser;
+import org.fxmisc.wellbehaved.event.Nodes;
+import org.scrivo.markdownfx.Messages;
+import org.scrivo.markdownfx._MarkdownWriterFXApp;
+import org.scrivo.markdownfx.options.Options;
+import org.scrivo.markdownfx.util.FontAwesomeIconFactory;
+import org.scrivo.markdownfx.util.PrefsStringProperty;
+import org.tbee.javafx.scene.layout.fxml.MigPane;
+import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
+
+/**
+ * Searches the markdown files of a folder using a persistent inverted index.
+ *
+ * The index is updated in a background thread when the pane is shown or
+ * the folder is changed. Meanwhile, searches use the previous index.
+ * Searching runs on the common fork-join pool, on each change of the query.
+ *
+ * @author Karl Tauber
+ */
+public class FolderSearchPane
+{
+	private static final int MAX_RESULTS = 500;
+
+	private static final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "markdown-folder-index");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static PrefsStringProperty folder = new PrefsStringProperty(
+			_MarkdownWriterFXApp.getState(), "folderSearchFolder", null);
+
+	private final Consumer<Path> openFile;
+	private final AtomicInteger indexGeneration = new AtomicInteger();
+	private final AtomicInteger searchGeneration = new AtomicInteger();
+	private FolderIndex index;
+	private boolean indexing;
+	private String indexError;
+
+	public FolderSearchPane(Consumer<Path> openFile) {
+		this.openFile = openFile;
+	}
+
+	// 'visible' property
+	private final SimpleBooleanProperty visible = new SimpleBooleanProperty();
+	public ReadOnlyBooleanProperty visibleProperty() { return visible; }
+
+	public Node getNode() {
+		if (pane != null)
+			return pane;
+
+		createComponents();
+
+		pane.getStyleClass().addAll("find-replace", "folder-search");
+		folderButton.getStyleClass().add("flat-button");
+		closeButton.getStyleClass().addAll("close", "flat-button");
+		infoLabel.getStyleClass().add("info");
+
+		folderButton.setGraphic(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.FOLDER_OPEN_ALT));
+		closeButton.setGraphic(FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.CLOSE));
+
+		folderButton.setTooltip(new Tooltip(Messages.get("FolderSearchPane.folderButton.tooltip")));
+		closeButton.setTooltip(new Tooltip(Messages.get("FindReplacePane.closeButton.tooltip")));
+
+		queryField.textProperty().addListener((ob, o, n) -> search());
+		Nodes.addInputMap(queryField, sequence(
+				consume(keyPressed(ENTER),	e -> openSelectedFile()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		Nodes.addInputMap(resultList, sequence(
+				consume(keyPressed(ENTER),	e -> openSelectedFile()),
+				consume(keyPressed(ESCAPE),	e -> hide())));
+		resultList.setOnMouseClicked(e -> {
+			if (e.getClickCount() == 2)
+				openSelectedFile();
+		});
+		folderButton.setOnAction(e -> chooseFolder());
+		closeButton.setOnAction(e -> hide());
+
+		return pane;
+	}
+
+	public void show() {
+		visible.set(true);
+
+		queryField.requestFocus();
+		queryField.selectAll();
+
+		if (index == null && folder.get() != null)
+			index = new FolderIndex(Paths.get(folder.get()));
+		updateFolderButton();
+		updateIndex();
+	}
+
+	private void hide() {
+		visible.set(false);
+
+		// cancel running indexing
+		indexGeneration.incrementAndGet();
+		indexing = false;
+	}
+
+	private void chooseFolder() {
+		DirectoryChooser chooser = new DirectoryChooser();
+		chooser.setTitle(Messages.get("FolderSearchPane.folderChooser.title"));
+		if (index != null && index.getFolder().toFile().isDirectory())
+			chooser.setInitialDirectory(index.getFolder().toFile());
+		File dir = chooser.showDialog(pane.getScene().getWindow());
+		if (dir == null)
+			return;
+
+		folder.set(dir.getAbsolutePath());
+		index = new FolderIndex(dir.toPath());
+		resultList.getItems().clear();
+		updateFolderButton();
+		updateIndex();
+	}
+
+	private void updateFolderButton() {
+		folderButton.setText((index != null)
+			? index.getFolder().toString()
+			: Messages.get("FolderSearchPane.folderButton.text"));
+	}
+
+	private void updateIndex() {
+		FolderIndex index = this.index;
+		if (index == null)
+			return;
+
+		// get options on the JavaFX application thread
+		String encoding = Options.getEncoding();
+		String fileExtensions = Options.getMarkdownFileExtensions();
+
+		int runGeneration = indexGeneration.incrementAndGet();
+		BooleanSupplier canceled = () -> indexGeneration.get() != runGeneration;
+		indexing = true;
+		indexError = null;
+		updateInfo();
+
+		indexExecutor.execute(() -> {
+			if (canceled.getAsBoolean())
+				return;
+
+			// search in last index while updating
+			index.open();
+			Platform.runLater(() -> search());
+
+			String error = update(index, encoding, fileExtensions, canceled);
+			Platform.runLater(() -> {
+				if (canceled.getAsBoolean())
+					return;
+
+				indexing = false;
+				indexError = error;
+				search();
+			});
+
+			// merge segments afterwards (searches use the updated segments meanwhile)
+			if (error == null)
+				merge(index, canceled);
+		});
+	}
+
+	/**
+	 * Updates the given index. Returns an error message if updating failed.
+	 */
+	private static String update(FolderIndex index, String encoding, String fileExtensions,
+		BooleanSupplier canceled)
+	{
+		try {
+			index.update(encoding, fileExtensions, canceled);
+			return null;
+		} catch (IOException ex) {
+			ex.printStackTrace();
+			return ex.getMessage();
+		}
+	}
+
+	private static void merge(FolderIndex index, BooleanSupplier canceled) {
+		try {
+			index.merge(canceled);
+		} catch (IOException ex) {
+			// ignore; segments are merged on next update
+			ex.printStackTrace();
+		}
+	}
+
+	private void search() {
+		FolderIndex index = this.index;
+		String query = queryField.getText();
+		int runGeneration = searchGeneration.incrementAndGet();
+		if (index == null || query.trim().isEmpty()) {
+			resultList.getItems().clear();
+			updateInfo();
+			return;
+		}
+
+		ForkJoinPool.commonPool().execute(() -> {
+			List<FolderIndex.Result> results = index.search(query, MAX_RESULTS);
+
+			Platform.runLater(() -> {
+				// drop results of outdated search
+				if (searchGeneration.get() != runGeneration)
+					return;
+
+				resultList.getItems().setAll(results);
+				if (!results.isEmpty())
+					resultList.getSelectionModel().select(0);
+				updateInfo();
+			});
+		});
+	}
+
+	private void updateInfo() {
+		String info;
+		if (indexError != null)
+			info = Messages.get("FolderSearchPane.infoLabel.indexError", indexError);
+		else if (indexing)
+			info = Messages.get("FolderSearchPane.infoLabel.indexing");
+		else if (index != null && !queryField.getText().trim().isEmpty())
+			info = Messages.get("FolderSearchPane.infoLabel.resultCount",
+				resultList.getItems().size(), index.getDocumentCount());
+		else
+			info = null;
+		infoLabel.setText(info);
+	}
+
+	private void openSelectedFile() {
+		FolderIndex.Result result = resultList.getSelectionModel().getSelectedItem();
+		if (result != null)
+			openFile.accept(result.getPath());
+	}
+
+	private void createComponents() {
+		queryField = new TextField();
+		queryField.setPromptText(Messages.get("FolderSearchPane.queryField.promptText"));
+
+		folderButton = new Button();
+		folderButton.setFocusTraversable(false);
+		closeButton = new Button();
+		closeButton.setFocusTraversable(false);
+
+		infoLabel = new Label();
+		resultList = new ListView<>();
+
+		// query row and result list
+		pane = new MigPane();
+		pane.setLayout("insets 0,hidemode 3");
+		pane.setCols("[fill][pref:n,fill][grow,shrinkprio 200,fill][fill]");
+		pane.setRows("[fill]rel[fill]");
+		pane.add(queryField, "cell 0 0,width 200:200:200");
+		pane.add(folderButton, "cell 1 0");
+		pane.add(infoLabel, "cell 2 0");
+		pane.add(closeButton, "cell 3 0");
+		pane.add(resultList, "cell 0 1 4 1,height 200:200:200");
+	}
+
+	private MigPane pane;
+	private Button folderButton;
+	private TextField queryField;
+	private Label infoLabel;
+	private Button closeButton;
+	private ListView<FolderIndex.Result> resultList;
+}
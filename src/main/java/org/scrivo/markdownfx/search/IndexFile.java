@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A read-only inverted index file (a segment of a {@link FolderIndex}).
+ *
+ * Layout:
+ * <pre>
+ *   header:   magic, version, first generation, postings offset,
+ *             documents offset, dictionary offset, encoding
+ *   postings: per term, (document id delta, term frequency) pairs as varints
+ *   documents: path, last modified time and size per document;
+ *             paths of documents deleted from older segments
+ *   dictionary: sorted terms with postings offset and document frequency
+ * </pre>
+ *
+ * The first generation is the oldest segment generation that this segment
+ * replaces (e.g. the segments merged into it). The encoding is the one used
+ * to decode the indexed files.
+ *
+ * Documents and dictionary are loaded into memory. The postings are
+ * memory-mapped and decoded on demand. Instances are thread-safe.
+ *
+ * When writing, the postings are streamed from a {@link TermSource}
+ * (e.g. merged from a previous index file), so only the dictionary
+ * is held in memory.
+ *
+ * @author Karl Tauber
+ */
+class IndexFile
+{
+	private static final int MAGIC = 0x4D465849; // "MFXI"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8; // without encoding
+
+	final int firstGeneration;
+	final String encoding;
+	final String[] paths;
+	final long[] lastModified;
+	final long[] sizes;
+	final String[] deletedPaths;
+
+	private final String[] terms;
+	private final int[] postingsOffsets;
+	private final int[] docFreqs;
+	private final ByteBuffer postings;
+
+	/**
+	 * Source of the terms (in ascending order) and their postings to write.
+	 */
+	interface TermSource {
+		/**
+		 * Adds the postings of the next term to the given writer and returns the term;
+		 * or returns null if there are no more terms. Terms without postings are skipped.
+		 */
+		String next(PostingsWriter writer) throws IOException;
+	}
+
+	private IndexFile(int firstGeneration, String encoding,
+		String[] paths, long[] lastModified, long[] sizes, String[] deletedPaths,
+		String[] terms, int[] postingsOffsets, int[] docFreqs, ByteBuffer postings)
+	{
+		this.firstGeneration = firstGeneration;
+		this.encoding = encoding;
+		this.paths = paths;
+		this.lastModified = lastModified;
+		this.sizes = sizes;
+		this.deletedPaths = deletedPaths;
+		this.terms = terms;
+		this.postingsOffsets = postingsOffsets;
+		this.docFreqs = docFreqs;
+		this.postings = postings;
+	}
+
+	int getDocumentCount() {
+		return paths.length;
+	}
+
+	int getTermCount() {
+		return terms.length;
+	}
+
+	String term(int termIndex) {
+		return terms[termIndex];
+	}
+
+	/**
+	 * Returns the index of the given term, or a negative value if the term
+	 * is not in the index.
+	 */
+	int findTerm(String term) {
+		return Arrays.binarySearch(terms, term);
+	}
+
+	int docFreq(int termIndex) {
+		return docFreqs[termIndex];
+	}
+
+	/**
+	 * Returns an iterator over the postings of the given term.
+	 */
+	PostingsIterator postings(int termIndex) {
+		return new PostingsIterator(postings, postingsOffsets[termIndex], docFreqs[termIndex]);
+	}
+
+	static IndexFile read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0)
+					throw new IOException("Truncated index file " + file);
+			}
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("Unsupported index file " + file);
+			int firstGeneration = header.getInt();
+			long postingsOffset = header.getLong();
+			long docsOffset = header.getLong();
+			long dictOffset = header.getLong();
+			if (postingsOffset < HEADER_SIZE || postingsOffset - HEADER_SIZE > 2 + 0xffff ||
+				docsOffset < postingsOffset || dictOffset < docsOffset)
+				throw new IOException("Truncated index file " + file);
+			if (docsOffset - postingsOffset > Integer.MAX_VALUE)
+				throw new IOException("Index file too large " + file);
+
+			// encoding
+			ByteBuffer encodingBytes = ByteBuffer.allocate((int) (postingsOffset - HEADER_SIZE));
+			while (encodingBytes.hasRemaining()) {
+				if (channel.read(encodingBytes) < 0)
+					throw new IOException("Truncated index file " + file);
+			}
+			String encoding = new DataInputStream(new ByteArrayInputStream(encodingBytes.array())).readUTF();
+
+			// map postings (the mapping stays valid after closing the channel)
+			ByteBuffer postings = channel.map(FileChannel.MapMode.READ_ONLY,
+				postingsOffset, docsOffset - postingsOffset);
+
+			channel.position(docsOffset);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(channel), 64 * 1024));
+
+			// documents
+			int docCount = in.readInt();
+			String[] paths = new String[docCount];
+			long[] lastModified = new long[docCount];
+			long[] sizes = new long[docCount];
+			for (int i = 0; i < docCount; i++) {
+				paths[i] = in.readUTF();
+				lastModified[i] = in.readLong();
+				sizes[i] = in.readLong();
+			}
+			String[] deletedPaths = new String[in.readInt()];
+			for (int i = 0; i < deletedPaths.length; i++)
+				deletedPaths[i] = in.readUTF();
+
+			// dictionary
+			int termCount = in.readInt();
+			String[] terms = new String[termCount];
+			int[] postingsOffsets = new int[termCount];
+			int[] docFreqs = new int[termCount];
+			for (int i = 0; i < termCount; i++) {
+				terms[i] = in.readUTF();
+				postingsOffsets[i] = in.readInt();
+				docFreqs[i] = in.readInt();
+			}
+
+			return new IndexFile(firstGeneration, encoding, paths, lastModified, sizes, deletedPaths,
+				terms, postingsOffsets, docFreqs, postings);
+		}
+	}
+
+	/**
+	 * Writes an index file. Returns false if canceled (the file is incomplete then).
+	 *
+	 * @param firstGeneration oldest segment generation replaced by this segment
+	 * @param encoding encoding used to decode the indexed files
+	 * @param deletedPaths paths of documents deleted from older segments
+	 * @param termSource terms in ascending order and their postings
+	 */
+	static boolean write(Path file, int firstGeneration, String encoding,
+		List<String> paths, long[] lastModified, long[] sizes, List<String> deletedPaths,
+		TermSource termSource, BooleanSupplier canceled)
+		throws IOException
+	{
+		List<String> terms = new ArrayList<>();
+		int[] postingsOffsets = new int[1024];
+		int[] docFreqs = new int[1024];
+		long postingsOffset;
+		long docsOffset;
+		long dictOffset;
+
+		try (CountingOutputStream counter = new CountingOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024)))
+		{
+			DataOutputStream out = new DataOutputStream(counter);
+
+			// header (offsets are written at the end)
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(firstGeneration);
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeLong(0);
+			out.writeUTF(encoding);
+
+			// postings
+			postingsOffset = counter.count;
+			PostingsWriter writer = new PostingsWriter(out);
+			for (int n = 0; ; n++) {
+				if ((n & 0xfff) == 0 && canceled.getAsBoolean())
+					return false;
+
+				long offset = counter.count - postingsOffset;
+				if (offset > Integer.MAX_VALUE)
+					throw new IOException("Index too large");
+
+				writer.reset();
+				String term = termSource.next(writer);
+				if (term == null)
+					break;
+				if (writer.count == 0)
+					continue; // no postings
+				assert terms.isEmpty() || terms.get(terms.size() - 1).compareTo(term) < 0;
+
+				int i = terms.size();
+				if (i == postingsOffsets.length) {
+					postingsOffsets = Arrays.copyOf(postingsOffsets, i * 2);
+					docFreqs = Arrays.copyOf(docFreqs, i * 2);
+				}
+				terms.add(term);
+				postingsOffsets[i] = (int) offset;
+				docFreqs[i] = writer.count;
+			}
+
+			// documents
+			docsOffset = counter.count;
+			out.writeInt(paths.size());
+			for (int i = 0; i < paths.size(); i++) {
+				out.writeUTF(paths.get(i));
+				out.writeLong(lastModified[i]);
+				out.writeLong(sizes[i]);
+			}
+			out.writeInt(deletedPaths.size());
+			for (String path : deletedPaths)
+				out.writeUTF(path);
+
+			// dictionary
+			dictOffset = counter.count;
+			out.writeInt(terms.size());
+			for (int i = 0; i < terms.size(); i++) {
+				out.writeUTF(terms.get(i));
+				out.writeInt(postingsOffsets[i]);
+				out.writeInt(docFreqs[i]);
+			}
+			out.flush();
+		}
+
+		// write offsets into header
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			ByteBuffer offsets = ByteBuffer.allocate(24);
+			offsets.putLong(postingsOffset);
+			offsets.putLong(docsOffset);
+			offsets.putLong(dictOffset);
+			offsets.flip();
+			channel.write(offsets, 12);
+			channel.force(true);
+		}
+		return true;
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	//---- class PostingsWriter -----------------------------------------------
+
+	/**
+	 * Encodes the postings of a term (while writing an index file).
+	 */
+	static class PostingsWriter
+	{
+		private final DataOutputStream out;
+		private int prevDoc;
+		private int count;
+
+		private PostingsWriter(DataOutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * Adds a posting. Document ids must be in ascending order.
+		 */
+		void add(int doc, int freq) throws IOException {
+			writeVarInt(out, doc - prevDoc);
+			writeVarInt(out, freq);
+			prevDoc = doc;
+			count++;
+		}
+
+		private void reset() {
+			prevDoc = 0;
+			count = 0;
+		}
+	}
+
+	//---- class PostingsIterator ---------------------------------------------
+
+	/**
+	 * Decodes the postings of a term. Uses absolute reads only,
+	 * so several iterators may read the shared buffer concurrently.
+	 */
+	static class PostingsIterator
+	{
+		private final ByteBuffer buffer;
+		private int position;
+		private int remaining;
+
+		int doc;
+		int freq;
+
+		PostingsIterator(ByteBuffer buffer, int position, int count) {
+			this.buffer = buffer;
+			this.position = position;
+			this.remaining = count;
+		}
+
+		/**
+		 * Decodes the next posting into 'doc' and 'freq'.
+		 * Returns false if there are no more postings.
+		 */
+		boolean next() {
+			if (remaining <= 0)
+				return false;
+
+			doc += readVarInt();
+			freq = readVarInt();
+			remaining--;
+			return true;
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buffer.get(position++);
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+		}
+	}
+
+	//---- class CountingOutputStream -----------------------------------------
+
+	private static class CountingOutputStream
+		extends OutputStream
+	{
+		final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -25,23 +25,38 @@
  * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-package org.scrivo.markdownfx.util;
+package org.scrivo.markdownfx.search;
+
+import java.util.Arrays;
 
 /**
+ * Growable list of (document id, term frequency) pairs of a term,
+ * in ascending document order.
+ *
  * @author Karl Tauber
  */
-public class Range
+class Postings
 {
-	public final int start;
-	public final int end;
+	private int[] data = new int[8];
+	private int size;
+
+	int size() {
+		return size;
+	}
+
+	int doc(int index) {
+		return data[index * 2];
+	}
 
-	public Range(int start, int end) {
-		this.start = start;
-		this.end = end;
+	int freq(int index) {
+		return data[index * 2 + 1];
 	}
 
-	@Override
-	public String toString() {
-		return start + "-" + end;
+	void add(int doc, int freq) {
+		if (size * 2 == data.length)
+			data = Arrays.copyOf(data, data.length * 2);
+		data[size * 2] = doc;
+		data[size * 2 + 1] = freq;
+		size++;
 	}
 }
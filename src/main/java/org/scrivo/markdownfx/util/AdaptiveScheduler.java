@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.util;
+
+import java.time.Duration;
+import javafx.application.Platform;
+import org.reactfx.util.FxTimer;
+import org.reactfx.util.Timer;
+
+/**
+ * Schedules a task (e.g. parsing or preview rendering) after changes,
+ * with a delay that adapts to the measured cost of the task.
+ *
+ * If the task is cheap (e.g. small documents), it runs as soon as possible
+ * (coalesced via Platform.runLater()). If it is expensive, it runs after a
+ * quiet period, which is restarted on each request (e.g. while typing).
+ * The quiet period grows with the cost, but the task always runs at latest
+ * maxStaleness milliseconds after the first request that was not yet served.
+ *
+ * The cost is an exponential moving average of the durations reported
+ * with reportCost(). Must be used on the JavaFX application thread only.
+ *
+ * @author Karl Tauber
+ */
+public class AdaptiveScheduler
+{
+	private static final long IMMEDIATE_COST = 10;		// milliseconds
+	private static final long QUIET_PERIOD_FACTOR = 2;
+	private static final double COST_WEIGHT = 0.3;
+
+	private final Runnable task;
+	private final long maxStaleness;
+
+	private double cost;				// milliseconds
+	private long firstRequestTime;		// milliseconds; or 0 if no request is pending
+	private boolean runLaterPending;
+	private Timer timer;
+
+	public AdaptiveScheduler(Runnable task, long maxStaleness) {
+		this.task = task;
+		this.maxStaleness = maxStaleness;
+	}
+
+	/**
+	 * Requests running the task.
+	 */
+	public void schedule() {
+		long now = System.currentTimeMillis();
+		if (firstRequestTime == 0)
+			firstRequestTime = now;
+
+		if (cost < IMMEDIATE_COST) {
+			// avoid too many (and useless) runLater() invocations
+			if (runLaterPending)
+				return;
+			runLaterPending = true;
+
+			stopTimer();
+			Platform.runLater(() -> {
+				if (runLaterPending)
+					run();
+			});
+			return;
+		}
+
+		// (re)start quiet period, but do not exceed maximum staleness
+		long delay = Math.min((long) (cost * QUIET_PERIOD_FACTOR),
+			firstRequestTime + maxStaleness - now);
+
+		stopTimer();
+		runLaterPending = false;
+		timer = FxTimer.runLater(Duration.ofMillis(Math.max(delay, 0)), this::run);
+	}
+
+	/**
+	 * Returns whether the task is scheduled but not yet started.
+	 */
+	public boolean isScheduled() {
+		return firstRequestTime != 0;
+	}
+
+	/**
+	 * Cancels a scheduled task.
+	 */
+	public void cancel() {
+		stopTimer();
+		runLaterPending = false;
+		firstRequestTime = 0;
+	}
+
+	/**
+	 * Reports the duration (in nanoseconds) of a task execution.
+	 * For asynchronous tasks, this should include the background work.
+	 */
+	public void reportCost(long nanos) {
+		double millis = nanos / 1_000_000.0;
+		cost = (cost == 0) ? millis : (cost + (millis - cost) * COST_WEIGHT);
+	}
+
+	private void run() {
+		stopTimer();
+		runLaterPending = false;
+		firstRequestTime = 0;
+
+		task.run();
+	}
+
+	private void stopTimer() {
+		if (timer != null) {
+			timer.stop();
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.util;
+
+import java.util.Arrays;
+
+/**
+ * Finds occurrences of a literal string, case sensitive or case insensitive,
+ * using the Boyer-Moore-Horspool algorithm.
+ *
+ * In case insensitive mode, characters are compared in folded form, which is
+ * Character.toLowerCase(Character.toUpperCase(c)). This gives the same results
+ * as String.regionMatches(true, ...) and StringUtils.indexOfIgnoreCase().
+ * Characters are folded using a precomputed table.
+ *
+ * The skip table is indexed by the low byte of the (folded) character.
+ * Characters with the same low byte share the smallest skip distance,
+ * which keeps the table small and is still correct.
+ *
+ * Case sensitive search to the end of a string uses String.indexOf(), which
+ * is an intrinsic in current JVMs and faster than any Java implementation.
+ * Bounded searches (e.g. rescanning a small window) use Boyer-Moore-Horspool
+ * because String.indexOf() would not stop at the bound.
+ *
+ * Instances are immutable and can be used in any thread.
+ *
+ * @author Karl Tauber
+ */
+public class LiteralMatcher
+{
+	private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+	static {
+		for (int c = 0; c <= Character.MAX_VALUE; c++)
+			FOLD[c] = Character.toLowerCase(Character.toUpperCase((char) c));
+	}
+
+	private final String find;
+	private final char[] pattern;
+	private final boolean matchCase;
+	private final int[] skip = new int[256];
+
+	public LiteralMatcher(String find, boolean matchCase) {
+		if (find.isEmpty())
+			throw new IllegalArgumentException("empty find string");
+
+		this.find = find;
+		this.matchCase = matchCase;
+
+		pattern = find.toCharArray();
+		if (!matchCase) {
+			for (int i = 0; i < pattern.length; i++)
+				pattern[i] = FOLD[pattern[i]];
+		}
+
+		int last = pattern.length - 1;
+		Arrays.fill(skip, pattern.length);
+		for (int i = 0; i < last; i++)
+			skip[pattern[i] & 0xff] = last - i;
+	}
+
+	public int length() {
+		return pattern.length;
+	}
+
+	/**
+	 * Returns the index of the first occurrence in the given text,
+	 * starting at 'from' and ending at or before 'to'; or -1.
+	 */
+	public int indexOf(CharSequence text, int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, text.length());
+
+		if (!matchCase)
+			return indexOfIgnoreCase(text, from, to);
+
+		if (text instanceof String && to == text.length())
+			return ((String) text).indexOf(find, from);
+		return indexOfMatchCase(text, from, to);
+	}
+
+	private int indexOfMatchCase(CharSequence text, int from, int to) {
+		char[] pattern = this.pattern;
+		int[] skip = this.skip;
+		int last = pattern.length - 1;
+		char lastChar = pattern[last];
+
+		for (int i = from + last; i < to; ) {
+			char c = text.charAt(i);
+			if (c == lastChar) {
+				int start = i - last;
+				int j = last - 1;
+				while (j >= 0 && text.charAt(start + j) == pattern[j])
+					j--;
+				if (j < 0)
+					return start;
+			}
+			i += skip[c & 0xff];
+		}
+		return -1;
+	}
+
+	private int indexOfIgnoreCase(CharSequence text, int from, int to) {
+		char[] fold = FOLD;
+		char[] pattern = this.pattern;
+		int[] skip = this.skip;
+		int last = pattern.length - 1;
+		char lastChar = pattern[last];
+
+		for (int i = from + last; i < to; ) {
+			char c = fold[text.charAt(i)];
+			if (c == lastChar) {
+				int start = i - last;
+				int j = last - 1;
+				while (j >= 0 && fold[text.charAt(start + j)] == pattern[j])
+					j--;
+				if (j < 0)
+					return start;
+			}
+			i += skip[c & 0xff];
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Karl Tauber <karl at jformdesigner dot com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.scrivo.markdownfx.util;
+
+import java.util.ArrayDeque;
+import java.util.function.BooleanSupplier;
+import javafx.animation.AnimationTimer;
+
+/**
+ * Runs resumable tasks in small steps on JavaFX pulses, limited by
+ * a time budget per pulse, so that long running work (e.g. highlighting
+ * large documents) does not drop frames.
+ *
+ * A task is invoked repeatedly, one step per invocation, until it
+ * returns false (no more work). Tasks are run in the order they
+ * were scheduled. Must be used on the JavaFX application thread only.
+ *
+ * @author Karl Tauber
+ */
+public class PulseScheduler
+{
+	private final long budget;
+	private final ArrayDeque<BooleanSupplier> tasks = new ArrayDeque<>();
+	private final AnimationTimer timer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			runSteps();
+		}
+	};
+	private boolean timerRunning;
+
+	/**
+	 * @param budget maximum time (in nanoseconds) used per pulse
+	 */
+	public PulseScheduler(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Schedules the given task. Does nothing if it is already scheduled.
+	 */
+	public void schedule(BooleanSupplier task) {
+		if (tasks.contains(task))
+			return;
+
+		tasks.addLast(task);
+
+		if (!timerRunning) {
+			timerRunning = true;
+			timer.start();
+		}
+	}
+
+	/**
+	 * Removes the given task, if scheduled.
+	 */
+	public void cancel(BooleanSupplier task) {
+		tasks.remove(task);
+	}
+
+	private void runSteps() {
+		long startTime = System.nanoTime();
+		while (!tasks.isEmpty() && System.nanoTime() - startTime < budget) {
+			BooleanSupplier task = tasks.peekFirst();
+			if (!task.getAsBoolean())
+				tasks.remove(task); // finished (may have been canceled or re-scheduled meanwhile)
+		}
+
+		if (tasks.isEmpty()) {
+			timerRunning = false;
+			timer.stop();
+		}
+	}
+}
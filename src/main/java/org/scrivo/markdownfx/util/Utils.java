@@ -27,6 +27,7 @@
 
 package org.scrivo.markdownfx.util;
 
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.prefs.Preferences;
@@ -57,6 +58,21 @@ public class Utils
 		return s == null || s.isEmpty();
 	}
 
+	/**
+	 * Decodes the given bytes using the given encoding, or the platform
+	 * default encoding if the encoding is null or not supported.
+	 */
+	public static String decode(byte[] bytes, String encoding) {
+		if (encoding != null) {
+			try {
+				return new String(bytes, encoding);
+			} catch (UnsupportedEncodingException ex) {
+				// fallback
+			}
+		}
+		return new String(bytes);
+	}
+
 	public static String ltrim(String s) {
 		int i = 0;
 		while (i < s.length() && Character.isWhitespace(s.charAt(i)))